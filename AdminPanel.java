@@ -40,7 +40,7 @@ public class AdminPanel {
 
     // Core components
     private final JDialog adminDialog;
-    private final RentalManager rentalManager;
+    private final RentalStore rentalManager;
     private final Runnable updateDisplayCallback;
 
     // Table components
@@ -58,7 +58,7 @@ public class AdminPanel {
      * @param rentalManager The rental manager instance
      * @param updateDisplayCallback Callback to update the main UI
      */
-    public AdminPanel(JFrame parent, RentalManager rentalManager, Runnable updateDisplayCallback) {
+    public AdminPanel(JFrame parent, RentalStore rentalManager, Runnable updateDisplayCallback) {
         this.rentalManager = rentalManager;
         this.updateDisplayCallback = updateDisplayCallback;
 
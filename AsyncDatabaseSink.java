@@ -0,0 +1,178 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mirrors {@link InMemoryRentalStore} changes into the rental database on a background thread.
+ * <p>
+ * Entries are written in journal order. Vehicle rows are upserted from the store's
+ * current state rather than replayed field by field, so the mirror converges even if
+ * an earlier write failed. Each entry is appended to the database's
+ * {@link RentalLedger} in the same transaction as its row change, so the two are
+ * written together or not at all. Failures are counted and logged but never reach the
+ * rental desk; the journal, not the database, is the source of truth.
+ */
+public class AsyncDatabaseSink {
+    private final DatabaseManager dbManager;
+    private final RentalStore store;
+    private final RentalLedger ledger;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "rental-store-sink");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public AsyncDatabaseSink(DatabaseManager dbManager, RentalStore store) {
+        this.dbManager = dbManager;
+        this.store = store;
+        this.ledger = new RentalLedger(dbManager);
+        try {
+            ledger.initialize();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Queues a journal entry for the database; returns immediately
+     */
+    public void offer(String[] entry) {
+        writer.execute(() -> {
+            try {
+                write(entry);
+                written.incrementAndGet();
+            } catch (SQLException e) {
+                failed.incrementAndGet();
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void write(String[] e) throws SQLException {
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int vehicleId;
+                switch (e[0]) {
+                    case RentalEvent.VEHICLE_ADDED:
+                    case RentalEvent.VEHICLE_UPDATED:
+                    case RentalEvent.QUANTITY_CHANGED:
+                        vehicleId = Integer.parseInt(e[1]);
+                        syncVehicle(conn, vehicleId);
+                        break;
+                    case RentalEvent.VEHICLE_REMOVED:
+                        vehicleId = Integer.parseInt(e[1]);
+                        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM vehicles WHERE id = ?")) {
+                            stmt.setInt(1, vehicleId);
+                            stmt.executeUpdate();
+                        }
+                        break;
+                    case RentalEvent.RENTED:
+                        try (PreparedStatement stmt = conn.prepareStatement(
+                                "INSERT INTO rental_records (id, vehicle_id, username, rent_date) VALUES (?, ?, ?, ?) " +
+                                        "ON DUPLICATE KEY UPDATE username = VALUES(username)")) {
+                            stmt.setInt(1, Integer.parseInt(e[1]));
+                            stmt.setInt(2, Integer.parseInt(e[2]));
+                            stmt.setString(3, e[3]);
+                            stmt.setTimestamp(4, RentalEvent.toTimestamp(e[4]));
+                            stmt.executeUpdate();
+                        }
+                        vehicleId = Integer.parseInt(e[2]);
+                        syncVehicle(conn, vehicleId);
+                        break;
+                    case RentalEvent.RETURNED:
+                        try (PreparedStatement stmt = conn.prepareStatement(
+                                "UPDATE rental_records SET return_date = ? WHERE id = ?")) {
+                            stmt.setTimestamp(1, RentalEvent.toTimestamp(e[2]));
+                            stmt.setInt(2, Integer.parseInt(e[1]));
+                            stmt.executeUpdate();
+                        }
+                        vehicleId = vehicleOfRental(conn, Integer.parseInt(e[1]));
+                        syncVehicle(conn, vehicleId);
+                        break;
+                    case RentalEvent.COST_RECORDED:
+                        try (PreparedStatement stmt = conn.prepareStatement(
+                                "UPDATE rental_records SET total_cost = ? WHERE id = ?")) {
+                            stmt.setDouble(1, Double.parseDouble(e[2]));
+                            stmt.setInt(2, Integer.parseInt(e[1]));
+                            stmt.executeUpdate();
+                        }
+                        vehicleId = vehicleOfRental(conn, Integer.parseInt(e[1]));
+                        break;
+                    default:
+                        // Snapshot-only entries never reach the sink
+                        return;
+                }
+                ledger.append(conn, vehicleId, e);
+                conn.commit();
+            } finally {
+                // Rolls back a failed entry; a no-op after commit
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static int vehicleOfRental(Connection conn, int rentalId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT vehicle_id FROM rental_records WHERE id = ?")) {
+            stmt.setInt(1, rentalId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    // Writes the vehicle row as the store has it now; a vehicle removed since is left to its delete
+    private void syncVehicle(Connection conn, int id) throws SQLException {
+        Optional<Vehicle> current = store.getVehicleById(id);
+        if (current.isEmpty()) return;
+        Vehicle v = current.get();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO vehicles (id, model, type, rent_per_day, is_available, quantity, available_quantity) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE model = VALUES(model), " +
+                        "type = VALUES(type), rent_per_day = VALUES(rent_per_day), is_available = VALUES(is_available), " +
+                        "quantity = VALUES(quantity), available_quantity = VALUES(available_quantity)")) {
+            stmt.setInt(1, v.getId());
+            stmt.setString(2, v.getModel());
+            stmt.setString(3, v.getType());
+            stmt.setDouble(4, v.getRentPerDay());
+            stmt.setBoolean(5, v.isAvailable());
+            stmt.setInt(6, v.getQuantity());
+            stmt.setInt(7, v.getAvailableQuantity());
+            stmt.executeUpdate();
+        }
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Waits briefly for queued entries to reach the database, then closes the pool
+     */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        ledger.shutdown();
+        dbManager.shutdown();
+    }
+}
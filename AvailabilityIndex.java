@@ -0,0 +1,155 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Running availability totals for the fleet, overall and per vehicle type.
+ * <p>
+ * {@link InventoryCache} reports every change as a before/after pair of the
+ * vehicle, and the index subtracts the old contribution and adds the new one,
+ * so summaries are answered in O(1) and the available vehicles of a type in
+ * O(result) without scanning the fleet.
+ */
+public class AvailabilityIndex {
+
+    /**
+     * Model and unit totals for one slice of the fleet
+     */
+    public static final class Counts {
+        private final int models;
+        private final int units;
+        private final int availableUnits;
+
+        Counts(int models, int units, int availableUnits) {
+            this.models = models;
+            this.units = units;
+            this.availableUnits = availableUnits;
+        }
+
+        public int getModels() { return models; }
+        public int getUnits() { return units; }
+        public int getAvailableUnits() { return availableUnits; }
+        public int getRentedUnits() { return units - availableUnits; }
+    }
+
+    private static final class Tally {
+        int models;
+        int units;
+        int availableUnits;
+        // Same totals restricted to models with at least one unit available
+        int availableModels;
+        int availableModelUnits;
+
+        void apply(Vehicle v, int sign) {
+            models += sign;
+            units += sign * v.getQuantity();
+            availableUnits += sign * v.getAvailableQuantity();
+            if (v.isAvailable()) {
+                availableModels += sign;
+                availableModelUnits += sign * v.getQuantity();
+            }
+        }
+
+        Counts counts(boolean availableOnly) {
+            return availableOnly ?
+                    new Counts(availableModels, availableModelUnits, availableUnits) :
+                    new Counts(models, units, availableUnits);
+        }
+    }
+
+    private static final Counts EMPTY = new Counts(0, 0, 0);
+
+    private final Tally total = new Tally();
+    // Fleet totals republished after every change, so they are read without the monitor
+    private volatile Counts totalCounts = EMPTY;
+    private volatile Counts availableCounts = EMPTY;
+    private final Map<String, Tally> byType = new HashMap<>();
+    // Readable without locking; only modified under the index monitor
+    private final ConcurrentSkipListSet<Integer> availableIds = new ConcurrentSkipListSet<>();
+    private final Map<String, ConcurrentSkipListSet<Integer>> availableIdsByType = new ConcurrentHashMap<>();
+
+    synchronized void clear() {
+        total.models = total.units = total.availableUnits = 0;
+        total.availableModels = total.availableModelUnits = 0;
+        byType.clear();
+        availableIds.clear();
+        availableIdsByType.clear();
+        publish();
+    }
+
+    /**
+     * Replaces {@code before}'s contribution with {@code after}'s; either may be null
+     * for an added or removed vehicle.
+     */
+    synchronized void update(Vehicle before, Vehicle after) {
+        if (before != null) {
+            total.apply(before, -1);
+            Tally tally = byType.get(before.getType());
+            tally.apply(before, -1);
+            if (tally.models == 0) byType.remove(before.getType());
+
+            if (before.isAvailable()) {
+                availableIds.remove(before.getId());
+                NavigableSet<Integer> ids = availableIdsByType.get(before.getType());
+                ids.remove(before.getId());
+                if (ids.isEmpty()) availableIdsByType.remove(before.getType());
+            }
+        }
+
+        if (after != null) {
+            total.apply(after, 1);
+            byType.computeIfAbsent(after.getType(), t -> new Tally()).apply(after, 1);
+
+            if (after.isAvailable()) {
+                availableIds.add(after.getId());
+                availableIdsByType.computeIfAbsent(after.getType(), t -> new ConcurrentSkipListSet<>())
+                        .add(after.getId());
+            }
+        }
+        publish();
+    }
+
+    private void publish() {
+        totalCounts = total.counts(false);
+        availableCounts = total.counts(true);
+    }
+
+    /**
+     * Totals for the whole fleet or, with {@code availableOnly}, for the models that can be rented now
+     */
+    public Counts getCounts(boolean availableOnly) {
+        return availableOnly ? availableCounts : totalCounts;
+    }
+
+    public synchronized Counts getCounts(String type, boolean availableOnly) {
+        Tally tally = byType.get(type);
+        return tally == null ? EMPTY : tally.counts(availableOnly);
+    }
+
+    /**
+     * Available units per vehicle type, ordered by type
+     */
+    public synchronized Map<String, Integer> getAvailableUnitsByType() {
+        Map<String, Integer> result = new TreeMap<>();
+        for (Map.Entry<String, Tally> entry : byType.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().availableUnits);
+        }
+        return result;
+    }
+
+    /**
+     * Ids of vehicles with at least one unit available, ascending; a live read-only view
+     */
+    public NavigableSet<Integer> getAvailableIds() {
+        return Collections.unmodifiableNavigableSet(availableIds);
+    }
+
+    public NavigableSet<Integer> getAvailableIds(String type) {
+        NavigableSet<Integer> ids = availableIdsByType.get(type);
+        return ids == null ? Collections.emptyNavigableSet() : Collections.unmodifiableNavigableSet(ids);
+    }
+}
@@ -0,0 +1,161 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.sql.DataSource;
+
+/**
+ * Source of physical JDBC connections for {@link DatabaseManager}.
+ * <p>
+ * The backend is chosen with the {@code rental.db.backend} system property:
+ * {@code mysql} (default) talks to a MySQL server, {@code embedded} runs an
+ * in-process H2 database in MySQL compatibility mode so the rental system can
+ * be exercised without any outside services.
+ */
+public interface DatabaseBackend {
+
+    /**
+     * Short name shown in diagnostics
+     */
+    String getName();
+
+    /**
+     * Prepares the backend before the schema is created, e.g. creating the database itself
+     */
+    void prepare() throws SQLException;
+
+    /**
+     * Opens a new physical connection to the rental database
+     */
+    Connection openConnection() throws SQLException;
+
+    /**
+     * Picks the backend named by the {@code rental.db.backend} system property
+     */
+    static DatabaseBackend fromSystemProperties() {
+        String backend = System.getProperty("rental.db.backend", "mysql");
+        switch (backend.toLowerCase()) {
+            case "mysql":
+                return new MySqlBackend(
+                        System.getProperty("rental.db.url", MySqlBackend.DEFAULT_URL),
+                        System.getProperty("rental.db.user", MySqlBackend.DEFAULT_USER),
+                        System.getProperty("rental.db.password", MySqlBackend.DEFAULT_PASSWORD));
+            case "embedded":
+            case "h2":
+                return new EmbeddedBackend(
+                        System.getProperty("rental.db.url", EmbeddedBackend.DEFAULT_URL));
+            default:
+                throw new IllegalArgumentException("Unknown database backend: " + backend);
+        }
+    }
+
+    /**
+     * Wraps an externally configured DataSource; the schema must be reachable through it
+     */
+    static DatabaseBackend of(String name, DataSource dataSource) {
+        return new DatabaseBackend() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public void prepare() {
+                // Nothing to do, the DataSource owner manages the database
+            }
+
+            @Override
+            public Connection openConnection() throws SQLException {
+                return dataSource.getConnection();
+            }
+        };
+    }
+
+    /**
+     * MySQL server reached through Connector/J
+     */
+    class MySqlBackend implements DatabaseBackend {
+        static final String DEFAULT_URL =
+                "jdbc:mysql://localhost:3306/vehicle_rental?useServerPrepStmts=true&useCursorFetch=true";
+        static final String DEFAULT_USER = "root";
+        static final String DEFAULT_PASSWORD = "yourpassword";
+
+        private final String url;
+        private final String user;
+        private final String password;
+
+        public MySqlBackend(String url, String user, String password) {
+            this.url = url;
+            this.user = user;
+            this.password = password;
+        }
+
+        @Override
+        public String getName() {
+            return "mysql";
+        }
+
+        @Override
+        public void prepare() throws SQLException {
+            try {
+                Class.forName("com.mysql.cj.jdbc.Driver");
+            } catch (ClassNotFoundException e) {
+                throw new SQLException("MySQL JDBC driver not found on the classpath", e);
+            }
+
+            // Create database if not exists
+            try (Connection conn = DriverManager.getConnection(serverUrl(), user, password);
+                 Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS vehicle_rental");
+            }
+        }
+
+        @Override
+        public Connection openConnection() throws SQLException {
+            return DriverManager.getConnection(url, user, password);
+        }
+
+        // Same server without the database path, so the database can be created first
+        private String serverUrl() {
+            int pathStart = url.indexOf('/', "jdbc:mysql://".length());
+            if (pathStart < 0) return url;
+            int queryStart = url.indexOf('?', pathStart);
+            return url.substring(0, pathStart + 1) + (queryStart < 0 ? "" : url.substring(queryStart));
+        }
+    }
+
+    /**
+     * In-process H2 database in MySQL compatibility mode. The default URL is a
+     * named in-memory database that lives as long as the JVM; pass a file URL
+     * such as {@code jdbc:h2:./data/vehicle_rental;MODE=MySQL} to keep data between runs.
+     */
+    class EmbeddedBackend implements DatabaseBackend {
+        static final String DEFAULT_URL =
+                "jdbc:h2:mem:vehicle_rental;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+        private final String url;
+
+        public EmbeddedBackend(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public String getName() {
+            return "embedded";
+        }
+
+        @Override
+        public void prepare() throws SQLException {
+            try {
+                Class.forName("org.h2.Driver");
+            } catch (ClassNotFoundException e) {
+                throw new SQLException("H2 JDBC driver not found on the classpath", e);
+            }
+        }
+
+        @Override
+        public Connection openConnection() throws SQLException {
+            return DriverManager.getConnection(url, "sa", "");
+        }
+    }
+}
@@ -1,26 +1,80 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.*;
-import java.util.LinkedList;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.JOptionPane;
 
 public class DatabaseManager {
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/vehicle_rental";
-    private static final String DB_USER = "root";
-    private static final String DB_PASSWORD = "yourpassword";
     private static final int MAX_POOL_SIZE = 10;
     private static final int INITIAL_POOL_SIZE = 3;
+    private static final long DEFAULT_ACQUIRE_TIMEOUT_MS = 5000;
+    private static final long HOUSEKEEPING_INTERVAL_MS = 1000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
 
     private static DatabaseManager instance;
-    private final LinkedList<Connection> connectionPool = new LinkedList<>();
-    private final Lock poolLock = new ReentrantLock();
+
+    private final DatabaseBackend backend;
+    private volatile int schemaVersion;
+
+    // Idle physical connections ready for checkout; most recently released first
+    private final ConcurrentLinkedDeque<PoolEntry> connectionPool = new ConcurrentLinkedDeque<>();
+    // Connections currently checked out, keyed by the proxy handed to the caller
+    private final Map<Connection, PooledConnection> checkedOut = new ConcurrentHashMap<>();
+    // One permit per connection the pool may have open; fair so waiters are served FIFO
+    private final Semaphore permits = new Semaphore(MAX_POOL_SIZE, true);
+    private volatile long acquireTimeoutMillis =
+            Long.getLong("rental.db.acquireTimeoutMs", DEFAULT_ACQUIRE_TIMEOUT_MS);
+    // Connections held longer than this are reported as leaks; 0 disables detection
+    private volatile long leakDetectionThresholdMillis =
+            Long.getLong("rental.db.leakDetectionThresholdMs", 0L);
+    private final AtomicLong leaksDetected = new AtomicLong();
+
+    // Idle connection housekeeping; all of it runs on the housekeeper thread, never on checkout
+    private final int minIdle = Integer.getInteger("rental.db.minIdle", INITIAL_POOL_SIZE);
+    private final long maxIdleMillis = Long.getLong("rental.db.maxIdleMs", TimeUnit.MINUTES.toMillis(10));
+    private final long maxLifetimeMillis = Long.getLong("rental.db.maxLifetimeMs", TimeUnit.MINUTES.toMillis(30));
+    private final long validationIntervalMillis =
+            Long.getLong("rental.db.validationIntervalMs", TimeUnit.SECONDS.toMillis(30));
+    private final AtomicLong connectionsReplaced = new AtomicLong();
+    private final AtomicLong connectionsEvicted = new AtomicLong();
+
+    // Per-connection LRU cache of prepared statements keyed by SQL text; 0 disables caching
+    private final int statementCacheSize = Integer.getInteger("rental.db.statementCacheSize", 32);
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    private final ScheduledExecutorService housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "db-pool-housekeeper");
+        t.setDaemon(true);
+        return t;
+    });
 
     public DatabaseManager() {
+        this(DatabaseBackend.fromSystemProperties());
+    }
+
+    public DatabaseManager(DatabaseBackend backend) {
+        this.backend = backend;
         try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
+            backend.prepare();
             initializeDatabase();
             initializeConnectionPool();
-        } catch (ClassNotFoundException | SQLException e) {
+            housekeeper.scheduleWithFixedDelay(this::detectLeaks,
+                    HOUSEKEEPING_INTERVAL_MS, HOUSEKEEPING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            housekeeper.scheduleWithFixedDelay(this::maintainIdleConnections,
+                    validationIntervalMillis, validationIntervalMillis, TimeUnit.MILLISECONDS);
+        } catch (SQLException e) {
             JOptionPane.showMessageDialog(null,
                     "Database connection error: " + e.getMessage(),
                     "Database Error", JOptionPane.ERROR_MESSAGE);
@@ -36,54 +90,30 @@ public class DatabaseManager {
     }
 
     private void initializeConnectionPool() throws SQLException {
-        poolLock.lock();
-        try {
-            for (int i = 0; i < INITIAL_POOL_SIZE; i++) {
-                connectionPool.add(createNewConnection());
-            }
-        } finally {
-            poolLock.unlock();
+        for (int i = 0; i < INITIAL_POOL_SIZE; i++) {
+            connectionPool.add(new PoolEntry(createNewConnection()));
         }
     }
 
     private Connection createNewConnection() throws SQLException {
-        Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+        Connection conn = backend.openConnection();
         conn.setAutoCommit(true); // Default to auto-commit
         return conn;
     }
 
     private void initializeDatabase() throws SQLException {
-        // Create database if not exists
-        try (Connection conn = DriverManager.getConnection("jdbc:mysql://localhost:3306", DB_USER, DB_PASSWORD);
-             Statement stmt = conn.createStatement()) {
-            stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS vehicle_rental");
+        // Bring the schema up to date once, before any connection is handed out
+        try (Connection conn = backend.openConnection()) {
+            schemaVersion = new SchemaMigrator().migrate(conn);
+            if (Boolean.getBoolean("rental.db.checkPlans")) {
+                // Throws past the constructor's handler, so a scanning query stops startup
+                QueryPlanCheck.verify(conn);
+            }
         }
 
-        // Create tables if not exists
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+        try (Connection conn = backend.openConnection();
              Statement stmt = conn.createStatement()) {
 
-            // Create vehicles table
-            stmt.executeUpdate(
-                    "CREATE TABLE IF NOT EXISTS vehicles (" +
-                            "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                            "model VARCHAR(100) NOT NULL, " +
-                            "type VARCHAR(50) NOT NULL, " +
-                            "rent_per_day DECIMAL(10, 2) NOT NULL, " +
-                            "quantity INT NOT NULL DEFAULT 1, " +
-                            "available_quantity INT NOT NULL DEFAULT 1)");
-
-            // Create rental_records table
-            stmt.executeUpdate(
-                    "CREATE TABLE IF NOT EXISTS rental_records (" +
-                            "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                            "vehicle_id INT, " +
-                            "username VARCHAR(50) NOT NULL, " +
-                            "rent_date DATETIME NOT NULL, " +
-                            "return_date DATETIME, " +
-                            "total_cost DECIMAL(10, 2), " +
-                            "FOREIGN KEY (vehicle_id) REFERENCES vehicles(id) ON DELETE SET NULL)");
-
             // Check if the table is empty, add sample data if needed
             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM vehicles");
             rs.next();
@@ -105,77 +135,266 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Checks a connection out of the pool, waiting up to the configured acquire
+     * timeout if all {@value #MAX_POOL_SIZE} connections are in use. Closing the
+     * returned connection hands it back to the pool instead of disconnecting.
+     *
+     * @throws SQLException if no connection became free in time or one could not be opened
+     */
     public Connection getConnection() throws SQLException {
-        poolLock.lock();
+        if (!tryAcquirePermit()) {
+            throw new SQLException("Timed out after " + acquireTimeoutMillis +
+                    " ms waiting for a database connection (" + checkedOut.size() + " in use)");
+        }
+
         try {
-            if (connectionPool.isEmpty()) {
-                if (connectionPool.size() < MAX_POOL_SIZE) {
-                    return createNewConnection();
-                } else {
-                    // Wait for a connection to become available
-                    poolLock.unlock();
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                    poolLock.lock();
-                    return getConnection();
+            // Liveness is checked by the housekeeper; here only skip what is known to be unusable
+            long now = System.currentTimeMillis();
+            PoolEntry entry;
+            while ((entry = connectionPool.pollFirst()) != null) {
+                if (!entry.connection.isClosed() && !entry.isExpired(now)) {
+                    break;
                 }
+                closeQuietly(entry.connection);
             }
-            Connection conn = connectionPool.removeFirst();
-
-            // Verify connection is still valid
-            if (conn.isClosed() || !conn.isValid(1)) {
-                conn = createNewConnection();
+            if (entry == null) {
+                entry = new PoolEntry(createNewConnection());
             }
 
-            return conn;
-        } finally {
-            poolLock.unlock();
+            PooledConnection pooled = new PooledConnection(entry);
+            checkedOut.put(pooled.proxy, pooled);
+            return pooled.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
         }
     }
 
+    private boolean tryAcquirePermit() throws SQLException {
+        try {
+            // Timed tryAcquire honours fairness, so a zero wait never barges ahead of queued threads
+            return permits.tryAcquire(0, TimeUnit.MILLISECONDS) ||
+                    permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+    }
+
+    /**
+     * Returns a connection to the pool. Equivalent to calling {@code close()} on it;
+     * connections that were not handed out by this pool, or were already returned, are ignored.
+     */
     public void releaseConnection(Connection conn) {
         if (conn == null) return;
 
-        poolLock.lock();
+        PooledConnection pooled = checkedOut.get(conn);
+        if (pooled != null) {
+            returnToPool(pooled);
+        }
+    }
+
+    private void returnToPool(PooledConnection pooled) {
+        // Only the first close of a proxy returns its connection, even if two threads race to close it
+        if (!pooled.closed.compareAndSet(false, true)) return;
+        checkedOut.remove(pooled.proxy);
+
+        PoolEntry entry = pooled.entry;
+        Connection conn = entry.connection;
         try {
-            // Only add back valid connections
-            if (!conn.isClosed() && conn.isValid(1)) {
+            // Only add back open connections while there is room for them
+            if (!conn.isClosed() && connectionPool.size() + checkedOut.size() < MAX_POOL_SIZE) {
                 // Reset to default state before returning to pool
                 if (!conn.getAutoCommit()) {
+                    conn.rollback();
                     conn.setAutoCommit(true);
                 }
-                connectionPool.add(conn);
+                conn.clearWarnings();
+                entry.releaseStatements();
+                entry.lastReturnedAt = System.currentTimeMillis();
+                connectionPool.addFirst(entry);
+            } else {
+                closeQuietly(conn);
             }
         } catch (SQLException e) {
             // If there's an issue with the connection, don't add it back
+            closeQuietly(conn);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void detectLeaks() {
+        long threshold = leakDetectionThresholdMillis;
+        if (threshold <= 0) return;
+
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : checkedOut.values()) {
+            if (!pooled.leakReported && pooled.acquisitionTrace != null
+                    && now - pooled.checkoutTime > threshold) {
+                pooled.leakReported = true;
+                leaksDetected.incrementAndGet();
+                System.err.println("Possible connection leak: connection held for " +
+                        (now - pooled.checkoutTime) + " ms without being returned to the pool");
+                pooled.acquisitionTrace.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Validates idle connections, retires those past their max idle time or lifetime,
+     * and tops the pool back up to the minimum idle count. Each connection is taken
+     * out of the idle deque while it is checked so it is never handed out mid-validation.
+     */
+    private void maintainIdleConnections() {
+        long now = System.currentTimeMillis();
+        int toCheck = connectionPool.size();
+
+        for (int i = 0; i < toCheck; i++) {
+            // Least recently used connections sit at the tail
+            PoolEntry entry = connectionPool.pollLast();
+            if (entry == null) break;
+
+            if (now - entry.lastReturnedAt > maxIdleMillis && connectionPool.size() >= minIdle) {
+                closeQuietly(entry.connection);
+                connectionsEvicted.incrementAndGet();
+            } else if (entry.isExpired(now) || !isAlive(entry.connection)) {
+                closeQuietly(entry.connection);
+                connectionsReplaced.incrementAndGet();
+            } else {
+                connectionPool.addLast(entry);
+            }
+        }
+
+        // Each top-up holds a permit while it opens, like a checkout, so together with
+        // getConnection the pool never has more than MAX_POOL_SIZE connections open
+        while (connectionPool.size() < minIdle) {
             try {
-                conn.close();
-            } catch (SQLException ex) {
-                // Ignore
+                if (!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            try {
+                if (connectionPool.size() + checkedOut.size() >= MAX_POOL_SIZE) break;
+                connectionPool.addLast(new PoolEntry(createNewConnection()));
+            } catch (SQLException e) {
+                // Database unreachable; try again on the next run
+                e.printStackTrace();
+                break;
+            } finally {
+                permits.release();
             }
-        } finally {
-            poolLock.unlock();
         }
     }
 
-    public void shutdown() {
-        poolLock.lock();
+    private static boolean isAlive(Connection conn) {
         try {
-            for (Connection conn : connectionPool) {
-                try {
-                    if (conn != null && !conn.isClosed()) {
-                        conn.close();
-                    }
-                } catch (SQLException e) {
-                    e.printStackTrace();
+            return !conn.isClosed() && conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets how long {@link #getConnection()} waits for a free connection before failing.
+     */
+    public void setAcquireTimeoutMillis(long acquireTimeoutMillis) {
+        if (acquireTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Acquire timeout cannot be negative");
+        }
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    public long getAcquireTimeoutMillis() {
+        return acquireTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a connection may stay checked out before it is reported as a
+     * possible leak along with the stack trace that acquired it. 0 disables detection.
+     * Only connections acquired after this is enabled carry an acquisition trace.
+     */
+    public void setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+        if (leakDetectionThresholdMillis < 0) {
+            throw new IllegalArgumentException("Leak detection threshold cannot be negative");
+        }
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+    }
+
+    public long getLeakDetectionThresholdMillis() {
+        return leakDetectionThresholdMillis;
+    }
+
+    /** Number of connections reported as leaked since startup */
+    public long getLeaksDetected() {
+        return leaksDetected.get();
+    }
+
+    /** Number of idle connections closed by the housekeeper because they failed validation or aged out */
+    public long getConnectionsReplaced() {
+        return connectionsReplaced.get();
+    }
+
+    /** Number of idle connections closed by the housekeeper for exceeding the max idle time */
+    public long getConnectionsEvicted() {
+        return connectionsEvicted.get();
+    }
+
+    public DatabaseBackend getBackend() {
+        return backend;
+    }
+
+    /** Schema version the database was migrated to at startup */
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    /** Number of prepareStatement calls served from a connection's statement cache */
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    /** Number of prepareStatement calls that had to prepare a new statement */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    /** Number of connections currently checked out of the pool */
+    public int getActiveConnectionCount() {
+        return checkedOut.size();
+    }
+
+    /** Number of open connections waiting in the pool */
+    public int getIdleConnectionCount() {
+        return connectionPool.size();
+    }
+
+    /** Number of threads currently blocked waiting for a connection */
+    public int getWaitingThreadCount() {
+        return permits.getQueueLength();
+    }
+
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            // Ignore
+        }
+    }
+
+    public void shutdown() {
+        housekeeper.shutdownNow();
+        PoolEntry entry;
+        while ((entry = connectionPool.pollFirst()) != null) {
+            try {
+                if (!entry.connection.isClosed()) {
+                    entry.connection.close();
                 }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-            connectionPool.clear();
-        } finally {
-            poolLock.unlock();
         }
     }
 
@@ -223,4 +442,198 @@ public class DatabaseManager {
     public interface TransactionHandler {
         boolean execute(Connection connection) throws SQLException;
     }
+
+    /**
+     * A physical connection together with the bookkeeping the housekeeper needs.
+     */
+    private final class PoolEntry {
+        private final Connection connection;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long lastReturnedAt = createdAt;
+        // Only touched by the thread that has this connection checked out
+        private final Map<String, CachedStatement> statementCache =
+                new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                        if (size() <= statementCacheSize) return false;
+                        eldest.getValue().evict();
+                        return true;
+                    }
+                };
+
+        PoolEntry(Connection connection) {
+            this.connection = connection;
+        }
+
+        boolean isExpired(long now) {
+            return now - createdAt > maxLifetimeMillis;
+        }
+
+        PreparedStatement prepareStatement(String sql) throws SQLException {
+            if (statementCacheSize <= 0) {
+                return connection.prepareStatement(sql);
+            }
+
+            CachedStatement cached = statementCache.get(sql);
+            if (cached != null && cached.tryBorrow()) {
+                statementCacheHits.incrementAndGet();
+                return cached.proxy;
+            }
+            statementCacheMisses.incrementAndGet();
+
+            PreparedStatement statement = connection.prepareStatement(sql);
+            if (cached != null) {
+                // Same SQL already open on this connection (nested use); don't cache the duplicate
+                return statement;
+            }
+            cached = new CachedStatement(statement);
+            cached.tryBorrow();
+            statementCache.put(sql, cached);
+            return cached.proxy;
+        }
+
+        // Frees statements the previous borrower left open so the next one can reuse them
+        void releaseStatements() throws SQLException {
+            for (CachedStatement cached : statementCache.values()) {
+                cached.release();
+            }
+        }
+    }
+
+    /**
+     * A prepared statement kept open in a connection's statement cache. close() on
+     * the proxy clears parameters and marks it free for the next caller; the physical
+     * statement is only closed once it falls out of the cache or the connection closes.
+     */
+    private static final class CachedStatement implements InvocationHandler {
+        private final PreparedStatement physical;
+        private final PreparedStatement proxy;
+        private boolean inUse;
+        private boolean evicted;
+
+        CachedStatement(PreparedStatement physical) {
+            this.physical = physical;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        boolean tryBorrow() {
+            if (inUse) return false;
+            inUse = true;
+            return true;
+        }
+
+        void release() throws SQLException {
+            if (!inUse) return;
+            inUse = false;
+            if (evicted) {
+                closeStatement();
+            } else {
+                physical.clearParameters();
+            }
+        }
+
+        void evict() {
+            evicted = true;
+            if (!inUse) closeStatement();
+        }
+
+        private void closeStatement() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                // Ignore
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    release();
+                    return null;
+                case "isClosed":
+                    if (!inUse) return true;
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * A single checkout of a physical connection. Callers only ever see the proxy;
+     * closing it returns the physical connection to the pool, and any later use of
+     * the same proxy fails instead of touching a connection now owned by someone else.
+     */
+    private final class PooledConnection implements InvocationHandler {
+        private final PoolEntry entry;
+        private final Connection physical;
+        private final Connection proxy;
+        private final long checkoutTime = System.currentTimeMillis();
+        private final Throwable acquisitionTrace;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean leakReported;
+
+        PooledConnection(PoolEntry entry) {
+            this.entry = entry;
+            this.physical = entry.connection;
+            this.proxy = (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+            this.acquisitionTrace = leakDetectionThresholdMillis > 0
+                    ? new Exception("Connection acquired by " + Thread.currentThread().getName())
+                    : null;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    returnToPool(this);
+                    return null;
+                case "isClosed":
+                    if (closed.get()) return true;
+                    break;
+                case "isValid":
+                    if (closed.get()) return false;
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + physical + "]";
+                case "unwrap":
+                    // Never hand out the physical connection; closing it would break the pool
+                    if (((Class<?>) args[0]).isInstance(proxy)) return proxy;
+                    throw new SQLException("A pooled connection does not wrap " + ((Class<?>) args[0]).getName());
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy);
+                default:
+                    break;
+            }
+
+            if (closed.get()) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if (args != null && args.length == 1 && method.getName().equals("prepareStatement")) {
+                return entry.prepareStatement((String) args[0]);
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
 }
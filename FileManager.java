@@ -1,17 +1,26 @@
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import java.awt.Desktop;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * FileManager handles all file operations including logs and receipts for the rental system
@@ -20,16 +29,155 @@ public class FileManager {
     private static final String RECEIPTS_DIRECTORY = "receipts";
     private static final String LOGS_DIRECTORY = "logs";
     private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-    private static final SimpleDateFormat LOG_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
-
-    // Thread pool for asynchronous logging operations
-    private final ExecutorService logExecutor = Executors.newSingleThreadExecutor();
+    private static final String LOG_FILE_PREFIX = "rental_log_";
+    // Receipts older than this are packed into the archive by a background job
+    private static final int ARCHIVE_AFTER_DAYS = Integer.getInteger("rental.receipts.archiveAfterDays", 30);
+    private static final long ARCHIVE_INTERVAL_MINUTES =
+            Long.getLong("rental.receipts.archiveIntervalMinutes", 24 * 60);
+    // Archived receipts kept unpacked for opening
+    private static final int EXTRACT_CACHE_SIZE = Integer.getInteger("rental.receipts.extractCacheSize", 64);
+    // A <kind>.txt here, e.g. rental.txt, replaces that receipt's built-in layout
+    private static final String TEMPLATES_DIRECTORY = System.getProperty("rental.receipts.templates", "templates");
+
+    private static final String RENTAL_TEMPLATE =
+            "=========================================\n" +
+            "          VEHICLE RENTAL RECEIPT         \n" +
+            "=========================================\n" +
+            "Receipt ID: {{receiptId}}\n" +
+            "Date & Time: {{dateTime}}\n" +
+            "-----------------------------------------\n" +
+            "Customer: {{customer}}\n" +
+            "-----------------------------------------\n" +
+            "Vehicle Details:\n" +
+            "  ID: {{vehicleId}}\n" +
+            "  Model: {{model}}\n" +
+            "  Type: {{type}}\n" +
+            "  Daily Rate: ${{dailyRate}}\n" +
+            "-----------------------------------------\n" +
+            "Please return the vehicle in good condition.\n" +
+            "Late fees may apply for delayed returns.\n" +
+            "=========================================\n" +
+            "Thank you for choosing our service!\n" +
+            "=========================================\n";
+
+    private static final String RETURN_TEMPLATE =
+            "=========================================\n" +
+            "         VEHICLE RETURN RECEIPT          \n" +
+            "=========================================\n" +
+            "Receipt ID: {{receiptId}}\n" +
+            "Return Date & Time: {{returnDate}}\n" +
+            "-----------------------------------------\n" +
+            "Customer: {{customer}}\n" +
+            "-----------------------------------------\n" +
+            "Vehicle Details:\n" +
+            "  ID: {{vehicleId}}\n" +
+            "  Model: {{model}}\n" +
+            "  Type: {{type}}\n" +
+            "-----------------------------------------\n" +
+            "Rental Information:\n" +
+            "  Rental Date: {{rentalDate}}\n" +
+            "  Return Date: {{returnDate}}\n" +
+            "  Duration: {{days}} day(s) ({{hours}} hours)\n" +
+            "-----------------------------------------\n" +
+            "Financial Summary:\n" +
+            "  Daily Rate: ${{dailyRate}}\n" +
+            "  Total Cost: ${{total}}\n" +
+            "-----------------------------------------\n" +
+            "Thank you for returning the vehicle!\n" +
+            "=========================================\n";
+
+    private static final String BATCH_RENTAL_TEMPLATE =
+            "=========================================\n" +
+            "       VEHICLE BATCH RENTAL RECEIPT      \n" +
+            "=========================================\n" +
+            "Receipt ID: {{receiptId}}\n" +
+            "Date & Time: {{dateTime}}\n" +
+            "-----------------------------------------\n" +
+            "Customer: {{customer}}\n" +
+            "Units Rented: {{unitCount}}\n" +
+            "-----------------------------------------\n" +
+            "{{#units}}  ID {{vehicleId}}: {{model}} ({{type}}) - ${{dailyRate}}/day\n" +
+            "{{/units}}-----------------------------------------\n" +
+            "Combined Daily Rate: ${{dailyRate}}\n" +
+            "-----------------------------------------\n" +
+            "Please return the vehicles in good condition.\n" +
+            "Late fees may apply for delayed returns.\n" +
+            "=========================================\n" +
+            "Thank you for choosing our service!\n" +
+            "=========================================\n";
+
+    private static final String BATCH_RETURN_TEMPLATE =
+            "=========================================\n" +
+            "       VEHICLE BATCH RETURN RECEIPT      \n" +
+            "=========================================\n" +
+            "Receipt ID: {{receiptId}}\n" +
+            "Return Date & Time: {{returnDate}}\n" +
+            "-----------------------------------------\n" +
+            "Customer: {{customer}}\n" +
+            "Units Returned: {{unitCount}}\n" +
+            "-----------------------------------------\n" +
+            "{{#units}}  ID {{vehicleId}}: {{model}} ({{type}})\n" +
+            "    Rented: {{rentalDate}}, {{days}} day(s) ({{hours}} hours)\n" +
+            "    Cost: ${{cost}}\n" +
+            "{{/units}}-----------------------------------------\n" +
+            "Financial Summary:\n" +
+            "  Total Cost: ${{total}}\n" +
+            "-----------------------------------------\n" +
+            "Thank you for returning the vehicles!\n" +
+            "=========================================\n";
+
+    // Keeps the day's log open and writes queued entries together; see rental.log.* properties
+    private final LogAppender logAppender = new LogAppender(Paths.get(LOGS_DIRECTORY), LOG_FILE_PREFIX,
+            LogAppender.FlushPolicy.valueOf(System.getProperty("rental.log.flush", "os").toUpperCase()),
+            Long.getLong("rental.log.flushMillis", 1000),
+            Integer.getInteger("rental.log.maxBatch", 1024));
+
+    // Compiled once at startup; see TEMPLATES_DIRECTORY
+    private final ReceiptTemplate rentalTemplate = loadTemplate("rental", RENTAL_TEMPLATE);
+    private final ReceiptTemplate returnTemplate = loadTemplate("return", RETURN_TEMPLATE);
+    private final ReceiptTemplate batchRentalTemplate = loadTemplate("batch-rental", BATCH_RENTAL_TEMPLATE);
+    private final ReceiptTemplate batchReturnTemplate = loadTemplate("batch-return", BATCH_RETURN_TEMPLATE);
+    private final ThreadLocal<ReceiptTemplate.Values> receiptValues =
+            ThreadLocal.withInitial(ReceiptTemplate.Values::new);
+    // Sharded receipt locations and their index by user, receipt id and vehicle
+    private final ReceiptCatalog receiptCatalog = new ReceiptCatalog(Paths.get(RECEIPTS_DIRECTORY));
+    private final ReceiptArchive receiptArchive = new ReceiptArchive(Paths.get(RECEIPTS_DIRECTORY, "archive"));
+    // Oldest receipt time that may still be loose; null until the first archiveReceipts run
+    private LocalDateTime archivedBefore;
+    // Archived receipts unpacked by getReceiptPath, most recently used last; the least
+    // recently used copy is deleted once there are more than rental.receipts.extractCacheSize
+    private final Map<String, Path> extractedReceipts = new LinkedHashMap<String, Path>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Path> eldest) {
+            if (size() <= EXTRACT_CACHE_SIZE) return false;
+            try {
+                Files.deleteIfExists(eldest.getValue());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return true;
+        }
+    };
+    private Path extractDirectory;
+    private final ScheduledExecutorService archiver = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "receipt-archiver");
+        t.setDaemon(true);
+        return t;
+    });
 
     // Singleton pattern
     private static FileManager instance;
 
     private FileManager() {
         initializeDirectories();
+        archiver.scheduleWithFixedDelay(() -> {
+            try {
+                archiveReceipts(ARCHIVE_AFTER_DAYS);
+            } catch (IOException e) {
+                // Runs in the background; the next run tries again
+                e.printStackTrace();
+            }
+        }, 5, ARCHIVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
     }
 
     /**
@@ -52,59 +200,113 @@ public class FileManager {
         } catch (IOException e) {
             handleException("Failed to create required directories", e);
         }
+        try {
+            receiptCatalog.load();
+            receiptArchive.load();
+        } catch (IOException e) {
+            handleException("Failed to load the receipt catalog and archive", e);
+        }
+    }
+
+    /**
+     * The operator's layout for a receipt kind if there is a valid one, else the built-in one
+     */
+    private ReceiptTemplate loadTemplate(String kind, String defaultSource) {
+        try {
+            return ReceiptTemplate.load(Paths.get(TEMPLATES_DIRECTORY, kind + ".txt"), defaultSource);
+        } catch (IOException | IllegalArgumentException e) {
+            handleException("Failed to load the " + kind + " receipt template, using the default", e);
+            return ReceiptTemplate.compile(defaultSource);
+        }
     }
 
     /**
      * Creates a receipt and logs when a vehicle is rented
      */
-    public boolean processRental(String username, int vehicleId, RentalManager rentalManager) {
+    public boolean processRental(String username, int vehicleId, RentalStore rentalManager) {
         Optional<Vehicle> vehicleOpt = rentalManager.getVehicleById(vehicleId);
         if (vehicleOpt.isEmpty()) {
             return false;
         }
+        return processRental(username, vehicleOpt.get(), LocalDateTime.now());
+    }
 
-        Vehicle vehicle = vehicleOpt.get();
-        LocalDateTime rentalTime = LocalDateTime.now();
-
+    /**
+     * Creates a receipt and logs a rental from the details recorded with it
+     */
+    public boolean processRental(String username, Vehicle vehicle, LocalDateTime rentalTime) {
         // Create rental receipt
         boolean receiptCreated = createRentalReceipt(username, vehicle, rentalTime);
 
         // Log the rental asynchronously
-        logAsync(() -> String.format("[%s] RENTAL - User: %s, Vehicle ID: %d, Model: %s",
-                formatDateTime(rentalTime), username, vehicleId, vehicle.getModel()));
+        logAsync(username, vehicle.getId(), () -> String.format("[%s] RENTAL - User: %s, Vehicle ID: %d, Model: %s",
+                formatDateTime(rentalTime), username, vehicle.getId(), vehicle.getModel()));
 
         return receiptCreated;
     }
 
     /**
-     * Creates a receipt and logs when a vehicle is returned
+     * Creates a receipt and logs a return from the details recorded with it
      */
-    public boolean processReturn(String username, int vehicleId, RentalManager rentalManager) {
-        Optional<Vehicle> vehicleOpt = rentalManager.getVehicleById(vehicleId);
-        if (vehicleOpt.isEmpty()) {
+    public boolean processReturn(String username, Vehicle vehicle, LocalDateTime rentalTime,
+                                 LocalDateTime returnTime) {
+        RentalCalculation calculation = calculateRental(rentalTime, returnTime, vehicle.getRentPerDay());
+
+        // Create return receipt
+        boolean receiptCreated = createReturnReceipt(username, vehicle, rentalTime, returnTime,
+                calculation.days, calculation.hours, calculation.totalCost);
+
+        // Log the return asynchronously
+        logAsync(username, vehicle.getId(), () -> String.format(
+                "[%s] RETURN - User: %s, Vehicle ID: %d, Model: %s, Amount: $%.2f",
+                formatDateTime(returnTime), username, vehicle.getId(), vehicle.getModel(), calculation.totalCost));
+
+        return receiptCreated;
+    }
+
+    /**
+     * Creates one consolidated receipt and logs each unit of a batch rental from the details recorded with it
+     */
+    public boolean processBatchRental(String username, List<Vehicle> vehicles, LocalDateTime rentalTime) {
+        if (vehicles.isEmpty()) {
             return false;
         }
 
-        Vehicle vehicle = vehicleOpt.get();
-        LocalDateTime rentalTime = rentalManager.getRentalTime(vehicleId);
+        boolean receiptCreated = createBatchRentalReceipt(username, vehicles, rentalTime);
 
-        if (rentalTime == null) {
-            JOptionPane.showMessageDialog(null,
-                    "No active rental found for this vehicle",
-                    "Error", JOptionPane.ERROR_MESSAGE);
-            return false;
+        for (Vehicle vehicle : vehicles) {
+            logAsync(username, vehicle.getId(), () -> String.format(
+                    "[%s] RENTAL - User: %s, Vehicle ID: %d, Model: %s",
+                    formatDateTime(rentalTime), username, vehicle.getId(), vehicle.getModel()));
         }
 
-        LocalDateTime returnTime = LocalDateTime.now();
-        RentalCalculation calculation = calculateRental(rentalTime, returnTime, vehicle.getRentPerDay());
+        return receiptCreated;
+    }
 
-        // Create return receipt
-        boolean receiptCreated = createReturnReceipt(username, vehicle, rentalTime, returnTime,
-                calculation.days, calculation.hours, calculation.totalCost);
+    /**
+     * Creates one consolidated receipt and logs each unit of a batch return from the details
+     * recorded with it; {@code rentalTimes} are in the order of {@code vehicles}
+     */
+    public boolean processBatchReturn(String username, List<Vehicle> vehicles, List<LocalDateTime> rentalTimes,
+                                      LocalDateTime returnTime) {
+        List<ReturnLine> lines = new ArrayList<>();
+        for (int i = 0; i < vehicles.size(); i++) {
+            Vehicle vehicle = vehicles.get(i);
+            lines.add(new ReturnLine(vehicle, rentalTimes.get(i),
+                    calculateRental(rentalTimes.get(i), returnTime, vehicle.getRentPerDay())));
+        }
+        if (lines.isEmpty()) {
+            return false;
+        }
 
-        // Log the return asynchronously
-        logAsync(() -> String.format("[%s] RETURN - User: %s, Vehicle ID: %d, Model: %s, Amount: $%.2f",
-                formatDateTime(returnTime), username, vehicleId, vehicle.getModel(), calculation.totalCost));
+        boolean receiptCreated = createBatchReturnReceipt(username, lines, returnTime);
+
+        for (ReturnLine line : lines) {
+            logAsync(username, line.vehicle.getId(), () -> String.format(
+                    "[%s] RETURN - User: %s, Vehicle ID: %d, Model: %s, Amount: $%.2f",
+                    formatDateTime(returnTime), username, line.vehicle.getId(), line.vehicle.getModel(),
+                    line.calculation.totalCost));
+        }
 
         return receiptCreated;
     }
@@ -125,40 +327,11 @@ public class FileManager {
      * Creates a receipt when a vehicle is rented
      */
     private boolean createRentalReceipt(String username, Vehicle vehicle, LocalDateTime rentalTime) {
-        String formattedDateTime = formatDateTime(rentalTime);
-        String filenameSafeDateTime = formattedDateTime.replace(":", "-").replace(" ", "_");
-        String receiptFileName = String.format("%s_rental_%d_%s.txt",
-                username, vehicle.getId(), filenameSafeDateTime);
-
-        Path receiptPath = Paths.get(RECEIPTS_DIRECTORY, receiptFileName);
-
-        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(receiptPath))) {
-            writer.println("=========================================");
-            writer.println("          VEHICLE RENTAL RECEIPT         ");
-            writer.println("=========================================");
-            writer.println("Receipt ID: " + generateReceiptId());
-            writer.println("Date & Time: " + formattedDateTime);
-            writer.println("-----------------------------------------");
-            writer.println("Customer: " + username);
-            writer.println("-----------------------------------------");
-            writer.println("Vehicle Details:");
-            writer.println("  ID: " + vehicle.getId());
-            writer.println("  Model: " + vehicle.getModel());
-            writer.println("  Type: " + vehicle.getType());
-            writer.println("  Daily Rate: $" + String.format("%.2f", vehicle.getRentPerDay()));
-            writer.println("-----------------------------------------");
-            writer.println("Please return the vehicle in good condition.");
-            writer.println("Late fees may apply for delayed returns.");
-            writer.println("=========================================");
-            writer.println("Thank you for choosing our service!");
-            writer.println("=========================================");
-
-            showReceiptToUser(receiptPath.toString());
-            return true;
-        } catch (IOException e) {
-            handleException("Failed to create rental receipt", e);
-            return false;
-        }
+        ReceiptCatalog.Entry receipt = newReceipt(username, "rental", vehicle.getId(), rentalTime, vehicle.getId());
+        ReceiptTemplate.Values values = receiptValues(receipt)
+                .dateTime(ReceiptTemplate.Field.DATE_TIME, rentalTime);
+        putVehicle(values, vehicle);
+        return writeReceipt(rentalTemplate, values, receipt, "Failed to create rental receipt");
     }
 
     /**
@@ -166,98 +339,158 @@ public class FileManager {
      */
     private boolean createReturnReceipt(String username, Vehicle vehicle, LocalDateTime rentalTime,
                                         LocalDateTime returnTime, int days, long hours, double totalCost) {
-        String formattedDateTime = formatDateTime(returnTime);
-        String filenameSafeDateTime = formattedDateTime.replace(":", "-").replace(" ", "_");
-        String receiptFileName = String.format("%s_return_%d_%s.txt",
-                username, vehicle.getId(), filenameSafeDateTime);
-
-        Path receiptPath = Paths.get(RECEIPTS_DIRECTORY, receiptFileName);
-
-        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(receiptPath))) {
-            writer.println("=========================================");
-            writer.println("         VEHICLE RETURN RECEIPT          ");
-            writer.println("=========================================");
-            writer.println("Receipt ID: " + generateReceiptId());
-            writer.println("Return Date & Time: " + formattedDateTime);
-            writer.println("-----------------------------------------");
-            writer.println("Customer: " + username);
-            writer.println("-----------------------------------------");
-            writer.println("Vehicle Details:");
-            writer.println("  ID: " + vehicle.getId());
-            writer.println("  Model: " + vehicle.getModel());
-            writer.println("  Type: " + vehicle.getType());
-            writer.println("-----------------------------------------");
-            writer.println("Rental Information:");
-            writer.println("  Rental Date: " + formatDateTime(rentalTime));
-            writer.println("  Return Date: " + formattedDateTime);
-            writer.println("  Duration: " + days + " day(s) (" + hours + " hours)");
-            writer.println("-----------------------------------------");
-            writer.println("Financial Summary:");
-            writer.println("  Daily Rate: $" + String.format("%.2f", vehicle.getRentPerDay()));
-            writer.println("  Total Cost: $" + String.format("%.2f", totalCost));
-            writer.println("-----------------------------------------");
-            writer.println("Thank you for returning the vehicle!");
-            writer.println("=========================================");
-
-            showReceiptToUser(receiptPath.toString());
-            return true;
-        } catch (IOException e) {
-            handleException("Failed to create return receipt", e);
-            return false;
+        ReceiptCatalog.Entry receipt = newReceipt(username, "return", vehicle.getId(), returnTime, vehicle.getId());
+        ReceiptTemplate.Values values = receiptValues(receipt)
+                .dateTime(ReceiptTemplate.Field.RENTAL_DATE, rentalTime)
+                .dateTime(ReceiptTemplate.Field.RETURN_DATE, returnTime)
+                .number(ReceiptTemplate.Field.DAYS, days)
+                .number(ReceiptTemplate.Field.HOURS, hours)
+                .money(ReceiptTemplate.Field.TOTAL, totalCost);
+        putVehicle(values, vehicle);
+        return writeReceipt(returnTemplate, values, receipt, "Failed to create return receipt");
+    }
+
+    /**
+     * Creates a single receipt covering every vehicle in a batch rental
+     */
+    private boolean createBatchRentalReceipt(String username, List<Vehicle> vehicles, LocalDateTime rentalTime) {
+        int[] vehicleIds = vehicles.stream().mapToInt(Vehicle::getId).toArray();
+        ReceiptCatalog.Entry receipt = newReceipt(username, "batch-rental", vehicles.size(), rentalTime, vehicleIds);
+        ReceiptTemplate.Values values = receiptValues(receipt)
+                .dateTime(ReceiptTemplate.Field.DATE_TIME, rentalTime)
+                .number(ReceiptTemplate.Field.UNIT_COUNT, vehicles.size());
+        double dailyTotal = 0.0;
+        for (Vehicle vehicle : vehicles) {
+            putVehicle(values.addUnit(), vehicle);
+            dailyTotal += vehicle.getRentPerDay();
         }
+        values.money(ReceiptTemplate.Field.DAILY_RATE, dailyTotal);
+        return writeReceipt(batchRentalTemplate, values, receipt, "Failed to create batch rental receipt");
     }
 
     /**
-     * Log an entry asynchronously
+     * Creates a single return receipt with per-unit and total costs for a batch return
      */
-    private void logAsync(Supplier<String> logEntrySupplier) {
-        logExecutor.submit(() -> writeToLog(logEntrySupplier.get()));
+    private boolean createBatchReturnReceipt(String username, List<ReturnLine> lines, LocalDateTime returnTime) {
+        int[] vehicleIds = lines.stream().mapToInt(line -> line.vehicle.getId()).toArray();
+        ReceiptCatalog.Entry receipt = newReceipt(username, "batch-return", lines.size(), returnTime, vehicleIds);
+        ReceiptTemplate.Values values = receiptValues(receipt)
+                .dateTime(ReceiptTemplate.Field.RETURN_DATE, returnTime)
+                .number(ReceiptTemplate.Field.UNIT_COUNT, lines.size());
+        double grandTotal = 0.0;
+        for (ReturnLine line : lines) {
+            putVehicle(values.addUnit(), line.vehicle)
+                    .dateTime(ReceiptTemplate.Field.RENTAL_DATE, line.rentalTime)
+                    .number(ReceiptTemplate.Field.DAYS, line.calculation.days)
+                    .number(ReceiptTemplate.Field.HOURS, line.calculation.hours)
+                    .money(ReceiptTemplate.Field.COST, line.calculation.totalCost);
+            grandTotal += line.calculation.totalCost;
+        }
+        values.money(ReceiptTemplate.Field.TOTAL, grandTotal);
+        return writeReceipt(batchReturnTemplate, values, receipt, "Failed to create batch return receipt");
     }
 
     /**
-     * Writes a log entry to the current day's log file
+     * A new receipt with a unique id, named e.g. alice_rental_12_2024-05-01_10-30-00_1a2b3c4d.txt
+     *
+     * @param number     the vehicle ID, or the number of vehicles on a batch receipt
+     * @param vehicleIds every vehicle on the receipt
      */
-    private void writeToLog(String logEntry) {
-        String logFileName = "rental_log_" + LOG_DATE_FORMAT.format(new Date()) + ".log";
-        Path logPath = Paths.get(LOGS_DIRECTORY, logFileName);
+    private ReceiptCatalog.Entry newReceipt(String username, String kind, int number, LocalDateTime time,
+                                            int... vehicleIds) {
+        String receiptId = generateReceiptId();
+        String filenameSafeDateTime = formatDateTime(time).replace(":", "-").replace(" ", "_");
+        String fileName = String.format("%s_%s_%d_%s_%s.txt", username, kind, number, filenameSafeDateTime, receiptId);
+        return new ReceiptCatalog.Entry(receiptId, username, kind, time, vehicleIds, fileName);
+    }
+
+    // This thread's values, cleared, with the fields every receipt has
+    private ReceiptTemplate.Values receiptValues(ReceiptCatalog.Entry receipt) {
+        return receiptValues.get().clear()
+                .text(ReceiptTemplate.Field.RECEIPT_ID, receipt.getReceiptId())
+                .text(ReceiptTemplate.Field.CUSTOMER, receipt.getUsername());
+    }
+
+    private static ReceiptTemplate.Values putVehicle(ReceiptTemplate.Values values, Vehicle vehicle) {
+        return values.number(ReceiptTemplate.Field.VEHICLE_ID, vehicle.getId())
+                .text(ReceiptTemplate.Field.MODEL, vehicle.getModel())
+                .text(ReceiptTemplate.Field.TYPE, vehicle.getType())
+                .money(ReceiptTemplate.Field.DAILY_RATE, vehicle.getRentPerDay());
+    }
 
+    private boolean writeReceipt(ReceiptTemplate template, ReceiptTemplate.Values values,
+                                 ReceiptCatalog.Entry receipt, String failureMessage) {
+        Path receiptPath = receiptCatalog.getPath(receipt.getFileName());
         try {
-            Files.createDirectories(logPath.getParent());
-            try (BufferedWriter writer = Files.newBufferedWriter(
-                    logPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
-                writer.write(logEntry);
-                writer.newLine();
-            }
+            Files.createDirectories(receiptPath.getParent());
+            template.write(values, receiptPath);
+        } catch (IOException e) {
+            handleException(failureMessage, e);
+            return false;
+        }
+        try {
+            receiptCatalog.add(receipt);
         } catch (IOException e) {
-            e.printStackTrace(); // Don't show dialog for background logging errors
+            // The receipt exists; it just won't be listed
+            e.printStackTrace();
         }
+        showReceiptToUser(receiptPath.toString());
+        return true;
+    }
+
+    /**
+     * Receipt rendering throughput since startup
+     */
+    public ReceiptTemplate.Metrics getReceiptMetrics() {
+        return ReceiptTemplate.getMetrics();
+    }
+
+    /**
+     * Log an entry about a user and vehicle asynchronously
+     */
+    private void logAsync(String username, int vehicleId, Supplier<String> logEntrySupplier) {
+        logAppender.append(username, vehicleId, logEntrySupplier);
+    }
+
+    /**
+     * Throughput of the rental log since startup
+     */
+    public LogAppender.Metrics getLogMetrics() {
+        return logAppender.getMetrics();
     }
 
     /**
      * Display the receipt to the user
      */
     private void showReceiptToUser(String receiptPath) {
-        try {
-            File receiptFile = new File(receiptPath);
-            if (Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.OPEN)) {
-                Desktop.getDesktop().open(receiptFile);
-            } else {
+        // Receipts are rendered off the EDT, and a dialog must not hold up the next receipt
+        SwingUtilities.invokeLater(() -> {
+            try {
+                File receiptFile = new File(receiptPath);
+                if (Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.OPEN)) {
+                    Desktop.getDesktop().open(receiptFile);
+                } else {
+                    JOptionPane.showMessageDialog(null,
+                            "Receipt saved at: " + receiptPath,
+                            "Receipt Created", JOptionPane.INFORMATION_MESSAGE);
+                }
+            } catch (IOException e) {
                 JOptionPane.showMessageDialog(null,
-                        "Receipt saved at: " + receiptPath,
-                        "Receipt Created", JOptionPane.INFORMATION_MESSAGE);
+                        "Receipt saved, but couldn't open automatically: " + e.getMessage(),
+                        "Warning", JOptionPane.WARNING_MESSAGE);
             }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(null,
-                    "Receipt saved, but couldn't open automatically: " + e.getMessage(),
-                    "Warning", JOptionPane.WARNING_MESSAGE);
-        }
+        });
     }
 
     /**
      * Generate a unique receipt ID
      */
     private String generateReceiptId() {
-        return UUID.randomUUID().toString().substring(0, 8);
+        String receiptId;
+        do {
+            receiptId = UUID.randomUUID().toString().substring(0, 8);
+        } while (!receiptCatalog.reserve(receiptId));
+        return receiptId;
     }
 
     /**
@@ -271,42 +504,204 @@ public class FileManager {
      * Gets the path to a specific receipt file
      */
     public String getReceiptPath(String fileName) {
-        return Paths.get(RECEIPTS_DIRECTORY, fileName).toString();
+        Path loose = receiptCatalog.getPath(fileName);
+        if (Files.exists(loose) || !receiptArchive.contains(fileName)) {
+            return loose.toString();
+        }
+        // Archived: unpacked once to a temporary copy that can be opened like any other file
+        Path copy;
+        synchronized (extractedReceipts) {
+            copy = extractedReceipts.get(fileName);
+        }
+        if (copy != null && Files.exists(copy)) {
+            return copy.toString();
+        }
+        try {
+            Optional<byte[]> content = receiptArchive.read(fileName);
+            if (content.isPresent()) {
+                copy = extractDirectory().resolve(fileName);
+                // Written aside and moved in, so a concurrent caller never sees a partial copy
+                Path partial = Files.createTempFile(copy.getParent(), fileName, ".tmp");
+                Files.write(partial, content.get());
+                Files.move(partial, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                copy.toFile().deleteOnExit();
+                synchronized (extractedReceipts) {
+                    extractedReceipts.put(fileName, copy);
+                }
+                return copy.toString();
+            }
+        } catch (IOException e) {
+            handleException("Failed to read archived receipt", e);
+        }
+        return loose.toString();
+    }
+
+    // Created on first use; removed, with the copies in it, on shutdown
+    private Path extractDirectory() throws IOException {
+        synchronized (extractedReceipts) {
+            if (extractDirectory == null) {
+                extractDirectory = Files.createTempDirectory("rental-receipts");
+                extractDirectory.toFile().deleteOnExit();
+            }
+            return extractDirectory;
+        }
+    }
+
+    private void deleteExtractedReceipts() {
+        Path directory;
+        synchronized (extractedReceipts) {
+            extractedReceipts.clear();
+            directory = extractDirectory;
+            extractDirectory = null;
+        }
+        if (directory == null) return;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            // Deepest first, so the directory is empty by the time it is deleted
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
-     * Lists all receipts for a specific user
+     * Gets the text of a receipt, whether it is loose or archived
      */
-    public String[] getUserReceipts(String username) {
+    public Optional<String> getReceiptText(String fileName) {
         try {
-            Path directory = Paths.get(RECEIPTS_DIRECTORY);
-            return Files.list(directory)
-                    .map(path -> path.getFileName().toString())
-                    .filter(name -> name.startsWith(username + "_"))
-                    .toArray(String[]::new);
-        } catch (Exception e) {
-            handleException("Failed to list user receipts", e);
-            return new String[0];
+            Path loose = receiptCatalog.getPath(fileName);
+            if (Files.exists(loose)) {
+                return Optional.of(new String(Files.readAllBytes(loose), StandardCharsets.UTF_8));
+            }
+            return receiptArchive.read(fileName).map(content -> new String(content, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            handleException("Failed to read receipt", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Packs loose receipts written more than {@code days} days ago into the archive
+     *
+     * @return the number of receipts archived
+     */
+    public synchronized int archiveReceipts(int days) throws IOException {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(days);
+        List<ReceiptCatalog.Entry> candidates = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        // Only receipts from the oldest one that may still be loose; the first run after a
+        // start goes through the whole catalog and skips what the archive holds
+        for (ReceiptCatalog.Entry receipt : receiptCatalog.findWrittenBetween(archivedBefore, cutoff)) {
+            if (receiptArchive.contains(receipt.getFileName())) continue;
+            Path loose = receiptCatalog.getPath(receipt.getFileName());
+            if (Files.exists(loose)) {
+                candidates.add(receipt);
+                files.add(loose);
+            }
         }
+        int packed = files.isEmpty() ? 0 : receiptArchive.pack(files);
+        // Advance only past what the archive now holds, so a receipt it did not take is
+        // retried on the next run; candidates are oldest first
+        LocalDateTime next = cutoff;
+        for (ReceiptCatalog.Entry receipt : candidates) {
+            if (!receiptArchive.contains(receipt.getFileName())
+                    && Files.exists(receiptCatalog.getPath(receipt.getFileName()))) {
+                next = receipt.getTime();
+                break;
+            }
+        }
+        archivedBefore = next;
+        return packed;
+    }
+
+    /**
+     * Gets the path to the receipt with the ID printed on it
+     */
+    public Optional<String> getReceiptPathById(String receiptId) {
+        return receiptCatalog.findById(receiptId).map(receipt -> getReceiptPath(receipt.getFileName()));
+    }
+
+    /**
+     * Lists all receipts for a specific user
+     */
+    public String[] getUserReceipts(String username) {
+        return toFileNames(receiptCatalog.findByUser(username));
+    }
+
+    /**
+     * Lists all receipts on which a vehicle appears
+     */
+    public String[] getVehicleReceipts(int vehicleId) {
+        return toFileNames(receiptCatalog.findByVehicle(vehicleId));
+    }
+
+    private static String[] toFileNames(List<ReceiptCatalog.Entry> receipts) {
+        return receipts.stream().map(ReceiptCatalog.Entry::getFileName).toArray(String[]::new);
     }
 
     /**
      * Gets all log entries for a specific date
      */
     public String[] getLogEntriesForDate(String date) {
-        String logFileName = "rental_log_" + date + ".log";
-        Path logPath = Paths.get(LOGS_DIRECTORY, logFileName);
-
         try {
-            if (Files.exists(logPath)) {
-                return Files.lines(logPath).toArray(String[]::new);
-            }
+            return toArray(logIndex().getEntries(LocalDate.parse(date)));
+        } catch (DateTimeParseException e) {
+            // No log can exist for it
         } catch (IOException e) {
             handleException("Failed to read log file", e);
         }
         return new String[0];
     }
 
+    /**
+     * Gets the log entries written between two times, across days
+     */
+    public String[] getLogEntriesBetween(LocalDateTime from, LocalDateTime to) {
+        try {
+            return toArray(logIndex().getEntriesBetween(from, to));
+        } catch (IOException e) {
+            handleException("Failed to read log files", e);
+        }
+        return new String[0];
+    }
+
+    /**
+     * Gets a user's log entries on the days from {@code from} to {@code to}
+     */
+    public String[] getUserLogEntries(String username, LocalDate from, LocalDate to) {
+        try {
+            return toArray(logIndex().getEntriesForUser(username, from, to));
+        } catch (IOException e) {
+            handleException("Failed to read log files", e);
+        }
+        return new String[0];
+    }
+
+    /**
+     * Gets a vehicle's log entries on the days from {@code from} to {@code to}
+     */
+    public String[] getVehicleLogEntries(int vehicleId, LocalDate from, LocalDate to) {
+        try {
+            return toArray(logIndex().getEntriesForVehicle(vehicleId, from, to));
+        } catch (IOException e) {
+            handleException("Failed to read log files", e);
+        }
+        return new String[0];
+    }
+
+    // The index, once entries still queued for today's segment have been written
+    private LogIndex logIndex() {
+        try {
+            logAppender.awaitWritten(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return logAppender.getIndex();
+    }
+
+    private static String[] toArray(List<String> lines) {
+        return lines.toArray(new String[0]);
+    }
+
     /**
      * Handle exceptions in a consistent way
      */
@@ -321,7 +716,18 @@ public class FileManager {
      * Clean up resources when application closes
      */
     public void shutdown() {
-        logExecutor.shutdown();
+        // Not shutdownNow: an interrupt would close the archive's channels mid-write;
+        // closing the archive waits for a block being appended, and the rest of a running
+        // pack stays loose until the next start
+        archiver.shutdown();
+        logAppender.close();
+        try {
+            receiptArchive.close();
+            receiptCatalog.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        deleteExtractedReceipts();
     }
 
     /**
@@ -332,4 +738,19 @@ public class FileManager {
         long hours;
         double totalCost;
     }
+
+    /**
+     * One returned unit on a batch return receipt
+     */
+    private static class ReturnLine {
+        final Vehicle vehicle;
+        final LocalDateTime rentalTime;
+        final RentalCalculation calculation;
+
+        ReturnLine(Vehicle vehicle, LocalDateTime rentalTime, RentalCalculation calculation) {
+            this.vehicle = vehicle;
+            this.rentalTime = rentalTime;
+            this.calculation = calculation;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,516 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams whole fleets in and out of the vehicles table.
+ * <p>
+ * Files ending in {@code .jsonl} or {@code .json} are read and written as one JSON
+ * object per line; anything else is CSV with a header row. Imports find CSV columns by
+ * header name ({@code model}, {@code type}, {@code rent_per_day} and optional
+ * {@code quantity}) and ignore the rest, so an export, which also carries {@code id}
+ * and {@code available_quantity}, imports as is. {@link #main} checks that round trip.
+ * Neither direction holds more than one chunk of vehicles in memory: imports
+ * go in as multi-row INSERTs committed every {@value #COMMIT_EVERY} rows, and exports
+ * read through a forward-only cursor with a bounded fetch size.
+ */
+public class FleetTransfer {
+    private static final int ROWS_PER_INSERT = 500;
+    private static final int COMMIT_EVERY = 5000;
+    private static final int EXPORT_FETCH_SIZE = 1000;
+    private static final int MAX_REPORTED_ERRORS = 100;
+    // rent_per_day is DECIMAL(10, 2)
+    private static final double MAX_RENT_PER_DAY = 99_999_999.99;
+    private static final String CSV_HEADER = "id,model,type,rent_per_day,quantity,available_quantity";
+
+    private static final String INSERT_PREFIX =
+            "INSERT INTO vehicles (model, type, rent_per_day, is_available, quantity, available_quantity) VALUES ";
+    private static final String INSERT_ROW = "(?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Receives progress after every committed chunk of an import
+     */
+    public interface ProgressListener {
+        void onProgress(long imported, long rejected);
+    }
+
+    /**
+     * Called on the import's connection with the vehicles of each chunk just before the
+     * chunk commits, so whatever it writes commits or rolls back with them
+     */
+    public interface ChunkRecorder {
+        void record(Connection conn, List<Vehicle> inserted) throws SQLException;
+    }
+
+    private final DatabaseManager dbManager;
+
+    public FleetTransfer(DatabaseManager dbManager) {
+        this.dbManager = dbManager;
+    }
+
+    /**
+     * Imports every valid vehicle in the file. Invalid lines are skipped and reported
+     * in the result; rows from chunks that were already committed stay if a later chunk fails.
+     */
+    public ImportResult importVehicles(Path file, ProgressListener listener) throws IOException, SQLException {
+        return importVehicles(file, listener, null);
+    }
+
+    /**
+     * Imports like {@link #importVehicles(Path, ProgressListener)}, handing each chunk's
+     * vehicles, with their generated ids, to {@code recorder} before it commits
+     */
+    public ImportResult importVehicles(Path file, ProgressListener listener, ChunkRecorder recorder)
+            throws IOException, SQLException {
+        boolean jsonLines = isJsonLines(file);
+        ImportResult result = new ImportResult();
+        List<VehicleRow> pending = new ArrayList<>(ROWS_PER_INSERT);
+        List<Vehicle> inserted = new ArrayList<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                long lineNumber = 0;
+                long uncommitted = 0;
+                int[] columns = null;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank()) continue;
+                    if (!jsonLines && columns == null) {
+                        try {
+                            columns = parseCsvHeader(line);
+                        } catch (IllegalArgumentException e) {
+                            throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+                        }
+                        continue;
+                    }
+
+                    try {
+                        VehicleRow row = jsonLines ? parseJsonLine(line) : parseCsvLine(line, columns);
+                        RentalManager.validateVehicleData(row.model, row.type, row.rentPerDay);
+                        if (row.rentPerDay > MAX_RENT_PER_DAY) {
+                            throw new IllegalArgumentException("Rent per day is too large");
+                        }
+                        if (row.quantity <= 0) throw new IllegalArgumentException("Quantity must be positive");
+                        pending.add(row);
+                    } catch (IllegalArgumentException e) {
+                        result.reject(lineNumber, e.getMessage());
+                        continue;
+                    }
+
+                    if (pending.size() == ROWS_PER_INSERT) {
+                        insertRows(conn, pending, recorder == null ? null : inserted);
+                        uncommitted += pending.size();
+                        pending.clear();
+                    }
+                    if (uncommitted >= COMMIT_EVERY) {
+                        if (recorder != null) recorder.record(conn, inserted);
+                        inserted.clear();
+                        conn.commit();
+                        result.imported += uncommitted;
+                        uncommitted = 0;
+                        if (listener != null) listener.onProgress(result.imported, result.rejected);
+                    }
+                }
+
+                if (!pending.isEmpty()) {
+                    insertRows(conn, pending, recorder == null ? null : inserted);
+                    uncommitted += pending.size();
+                }
+                if (recorder != null && !inserted.isEmpty()) recorder.record(conn, inserted);
+                conn.commit();
+                result.imported += uncommitted;
+                if (listener != null) listener.onProgress(result.imported, result.rejected);
+            } catch (SQLException | IOException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes every vehicle to the file, in id order.
+     *
+     * @return number of vehicles written
+     */
+    public long exportVehicles(Path file) throws IOException, SQLException {
+        boolean jsonLines = isJsonLines(file);
+        long written = 0;
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             Connection conn = dbManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT id, model, type, rent_per_day, quantity, available_quantity FROM vehicles ORDER BY id",
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // With MySQL's useCursorFetch this becomes a server-side cursor read in chunks
+            stmt.setFetchSize(EXPORT_FETCH_SIZE);
+            if (!jsonLines) {
+                writer.write(CSV_HEADER);
+                writer.newLine();
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt("id");
+                    String model = rs.getString("model");
+                    String type = rs.getString("type");
+                    BigDecimal rentPerDay = rs.getBigDecimal("rent_per_day");
+                    int quantity = rs.getInt("quantity");
+                    int available = rs.getInt("available_quantity");
+                    writer.write(jsonLines ? toJsonLine(id, model, type, rentPerDay, quantity, available)
+                            : toCsvLine(id, model, type, rentPerDay, quantity, available));
+                    writer.newLine();
+                    written++;
+                }
+            }
+        }
+        return written;
+    }
+
+    static String toCsvLine(int id, String model, String type, BigDecimal rentPerDay, int quantity,
+                            int available) {
+        return id + "," + csvField(model) + "," + csvField(type) + "," + rentPerDay.toPlainString() + "," +
+                quantity + "," + available;
+    }
+
+    static String toJsonLine(int id, String model, String type, BigDecimal rentPerDay, int quantity,
+                             int available) {
+        return "{\"id\":" + id + ",\"model\":" + jsonString(model) + ",\"type\":" + jsonString(type) +
+                ",\"rentPerDay\":" + rentPerDay.toPlainString() + ",\"quantity\":" + quantity +
+                ",\"availableQuantity\":" + available + "}";
+    }
+
+    // One multi-row INSERT per chunk; full chunks share one SQL string so the statement cache reuses it.
+    // With inserted given, the rows are added to it with their generated ids.
+    private static void insertRows(Connection conn, List<VehicleRow> rows, List<Vehicle> inserted)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows.size() * (INSERT_ROW.length() + 2));
+        sql.append(INSERT_PREFIX);
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(INSERT_ROW);
+        }
+
+        try (PreparedStatement stmt = inserted == null ? conn.prepareStatement(sql.toString())
+                : conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS)) {
+            int p = 1;
+            for (VehicleRow row : rows) {
+                stmt.setString(p++, row.model);
+                stmt.setString(p++, row.type);
+                stmt.setDouble(p++, row.rentPerDay);
+                stmt.setBoolean(p++, true);
+                stmt.setInt(p++, row.quantity);
+                stmt.setInt(p++, row.quantity);
+            }
+            stmt.executeUpdate();
+            if (inserted == null) return;
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                for (VehicleRow row : rows) {
+                    if (!keys.next()) throw new SQLException("No id generated for imported vehicle");
+                    inserted.add(new Vehicle(keys.getInt(1), row.model, row.type, row.rentPerDay, row.quantity));
+                }
+            }
+        }
+    }
+
+    private static boolean isJsonLines(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".jsonl") || name.endsWith(".json");
+    }
+
+    // Positions of model, type, rent_per_day and quantity (-1 if absent) in the header
+    static int[] parseCsvHeader(String header) {
+        int[] columns = {-1, -1, -1, -1};
+        List<String> names = splitCsv(header);
+        for (int i = 0; i < names.size(); i++) {
+            switch (names.get(i).toLowerCase()) {
+                case "model": columns[0] = i; break;
+                case "type": columns[1] = i; break;
+                case "rent_per_day": columns[2] = i; break;
+                case "quantity": columns[3] = i; break;
+                default: break; // e.g. an export's id and available_quantity
+            }
+        }
+        if (columns[0] < 0 || columns[1] < 0 || columns[2] < 0) {
+            throw new IllegalArgumentException("CSV header must name model, type and rent_per_day");
+        }
+        return columns;
+    }
+
+    // A data row laid out as parseCsvHeader found; a missing or empty quantity means 1
+    static VehicleRow parseCsvLine(String line, int[] columns) {
+        List<String> fields = splitCsv(line);
+        String quantity = field(fields, columns[3]);
+        return new VehicleRow(field(fields, columns[0]), field(fields, columns[1]),
+                parseNumber(requireField(fields, columns[2], "rent_per_day"), "rent_per_day"),
+                quantity == null || quantity.isEmpty() ? 1 : parseQuantity(quantity));
+    }
+
+    private static String field(List<String> fields, int column) {
+        return column >= 0 && column < fields.size() ? fields.get(column) : null;
+    }
+
+    private static String requireField(List<String> fields, int column, String name) {
+        String value = field(fields, column);
+        if (value == null || value.isEmpty()) throw new IllegalArgumentException("Missing " + name);
+        return value;
+    }
+
+    // Comma-separated fields with optional double quotes
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(6);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    // A flat object with model, type, rentPerDay and optional quantity
+    static VehicleRow parseJsonLine(String line) {
+        Map<String, String> values = new HashMap<>();
+        int i = skipWhitespace(line, 0);
+        if (i >= line.length() || line.charAt(i) != '{') throw new IllegalArgumentException("Expected a JSON object");
+        i = skipWhitespace(line, i + 1);
+
+        while (i < line.length() && line.charAt(i) != '}') {
+            StringBuilder key = new StringBuilder();
+            i = readJsonString(line, i, key);
+            i = skipWhitespace(line, i);
+            if (i >= line.length() || line.charAt(i) != ':') throw new IllegalArgumentException("Expected ':'");
+            i = skipWhitespace(line, i + 1);
+
+            StringBuilder value = new StringBuilder();
+            if (i < line.length() && line.charAt(i) == '"') {
+                i = readJsonString(line, i, value);
+            } else {
+                while (i < line.length() && ",} \t".indexOf(line.charAt(i)) < 0) {
+                    value.append(line.charAt(i++));
+                }
+                if (value.toString().equals("null")) throw new IllegalArgumentException("Null " + key);
+            }
+            values.put(key.toString(), value.toString());
+
+            i = skipWhitespace(line, i);
+            if (i < line.length() && line.charAt(i) == ',') i = skipWhitespace(line, i + 1);
+        }
+
+        String rent = values.containsKey("rentPerDay") ? values.get("rentPerDay") : values.get("rent_per_day");
+        if (rent == null) throw new IllegalArgumentException("Missing rentPerDay");
+        String quantity = values.get("quantity");
+        return new VehicleRow(values.get("model"), values.get("type"), parseNumber(rent, "rentPerDay"),
+                quantity != null ? parseQuantity(quantity) : 1);
+    }
+
+    private static int readJsonString(String line, int i, StringBuilder out) {
+        if (i >= line.length() || line.charAt(i) != '"') throw new IllegalArgumentException("Expected a string");
+        i++;
+        while (i < line.length()) {
+            char c = line.charAt(i++);
+            if (c == '"') return i;
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (i >= line.length()) break;
+            char escaped = line.charAt(i++);
+            switch (escaped) {
+                case 'n': out.append('\n'); break;
+                case 't': out.append('\t'); break;
+                case 'r': out.append('\r'); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'u':
+                    if (i + 4 > line.length()) throw new IllegalArgumentException("Bad unicode escape");
+                    out.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                default: out.append(escaped);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string");
+    }
+
+    private static int skipWhitespace(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) i++;
+        return i;
+    }
+
+    // Finite numbers only: NaN would pass the positivity checks and fail the insert
+    private static double parseNumber(String text, String field) {
+        double value;
+        try {
+            value = Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + field + ": " + text);
+        }
+        if (!Double.isFinite(value)) throw new IllegalArgumentException("Invalid " + field + ": " + text);
+        return value;
+    }
+
+    // A whole number of units; "2.5" is rejected rather than truncated
+    private static int parseQuantity(String text) {
+        double value = parseNumber(text, "quantity");
+        if (value != Math.rint(value) || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid quantity: " + text);
+        }
+        return (int) value;
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Round-trip check for the file formats, needing no database: sample vehicles are
+     * written with the export's line formats and read back with the import's parsers,
+     * and malformed values must be rejected. Exits with status 1 on any mismatch.
+     */
+    public static void main(String[] args) {
+        Object[][] samples = {
+                {1, "Toyota Corolla", "Car", "50.00", 3, 2},
+                {2, "Model \"S\", long range", "Car, electric", "129.99", 1, 1},
+                {3, "Back\\slash \u00e9t\u00e9", "Bike", "0.01", 12, 0},
+                {4, "Big", "Truck", "99999999.99", 2147483647, 5},
+        };
+        String[][] rejected = {
+                {"model,type,rent_per_day,quantity", "Car,Car,NaN,1"},
+                {"model,type,rent_per_day,quantity", "Car,Car,Infinity,1"},
+                {"model,type,rent_per_day,quantity", "Car,Car,10,2.5"},
+                {"model,type,rent_per_day,quantity", "Car,Car,,1"},
+                {null, "{\"model\":\"Car\",\"type\":\"Car\",\"rentPerDay\":-Infinity}"},
+                {null, "{\"model\":\"Car\",\"type\":\"Car\",\"rentPerDay\":10,\"quantity\":1.5}"},
+                {null, "{\"model\":null,\"type\":\"Car\",\"rentPerDay\":10}"},
+                {null, "{\"model\":\"Car\",\"type\":\"Car\",\"rentPerDay\":10,\"quantity\":null}"},
+        };
+        int failures = 0;
+        int[] columns = parseCsvHeader(CSV_HEADER);
+        for (Object[] s : samples) {
+            int id = (Integer) s[0];
+            String model = (String) s[1];
+            String type = (String) s[2];
+            BigDecimal rent = new BigDecimal((String) s[3]);
+            int quantity = (Integer) s[4];
+            int available = (Integer) s[5];
+            String csv = toCsvLine(id, model, type, rent, quantity, available);
+            String json = toJsonLine(id, model, type, rent, quantity, available);
+            for (int format = 0; format < 2; format++) {
+                String line = format == 0 ? csv : json;
+                VehicleRow row;
+                try {
+                    row = format == 0 ? parseCsvLine(line, columns) : parseJsonLine(line);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("FAIL " + line + ": " + e.getMessage());
+                    failures++;
+                    continue;
+                }
+                if (!model.equals(row.model) || !type.equals(row.type)
+                        || BigDecimal.valueOf(row.rentPerDay).compareTo(rent) != 0 || row.quantity != quantity) {
+                    System.out.println("FAIL " + line + " read back as " + row.model + " | " + row.type + " | " +
+                            row.rentPerDay + " | " + row.quantity);
+                    failures++;
+                }
+            }
+        }
+        for (String[] r : rejected) {
+            try {
+                VehicleRow row = r[0] != null ? parseCsvLine(r[1], parseCsvHeader(r[0])) : parseJsonLine(r[1]);
+                RentalManager.validateVehicleData(row.model, row.type, row.rentPerDay);
+                System.out.println("FAIL accepted " + r[1]);
+                failures++;
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        System.out.println(failures == 0 ? "Round trip OK: " + samples.length + " vehicles, " + rejected.length +
+                " rejections" : failures + " failure(s)");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Inner classes
+    static class VehicleRow {
+        final String model;
+        final String type;
+        final double rentPerDay;
+        final int quantity;
+
+        VehicleRow(String model, String type, double rentPerDay, int quantity) {
+            this.model = model;
+            this.type = type;
+            this.rentPerDay = rentPerDay;
+            this.quantity = quantity;
+        }
+    }
+
+    public static class ImportResult {
+        private long imported;
+        private long rejected;
+        private final List<String> errors = new ArrayList<>();
+
+        private void reject(long lineNumber, String reason) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("Line " + lineNumber + ": " + reason);
+            }
+        }
+
+        public long getImported() { return imported; }
+        public long getRejected() { return rejected; }
+        /** The first {@value FleetTransfer#MAX_REPORTED_ERRORS} rejection reasons */
+        public List<String> getErrors() { return Collections.unmodifiableList(errors); }
+    }
+}
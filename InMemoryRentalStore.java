@@ -0,0 +1,407 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.swing.JOptionPane;
+
+/**
+ * {@link RentalStore} that keeps the whole fleet and rental history in memory.
+ * <p>
+ * Every change is first appended to a {@link RentalJournal} and then applied to the
+ * in-memory {@link RentalProjection} that also replays the journal on startup, so a restart
+ * after a crash ends up exactly where the last completed change left off. A snapshot
+ * is taken every {@code rental.store.snapshotEvery} entries (default 10000) and on
+ * close to keep recovery short; the periodic one is written by a background thread
+ * that holds the write lock only to rotate the journal and copy the state. Set {@code rental.store.fsync=true} to force each
+ * entry to disk; by default entries survive a process crash but not a power loss.
+ * <p>
+ * Writes are serialized by one lock held for microseconds; reads never lock.
+ * When a database is given it receives every change through an
+ * {@link AsyncDatabaseSink} and is never on the rent or return path.
+ */
+public class InMemoryRentalStore implements RentalStore {
+    private static final int SNAPSHOT_EVERY = Integer.getInteger("rental.store.snapshotEvery", 10_000);
+
+    private final RentalProjection state = new RentalProjection();
+    private final InventoryCache inventory = state.getInventory();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final RentalJournal journal;
+    private final AsyncDatabaseSink sink;
+    private final FileManager fileManager;
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "rental-store-snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean snapshotPending = new AtomicBoolean();
+
+    /**
+     * Opens or recovers the store kept in {@code directory}.
+     *
+     * @param sinkDb database to mirror changes into, or null to run without one. A new
+     *               store with a database starts from the database's fleet and open rentals.
+     */
+    public InMemoryRentalStore(Path directory, DatabaseManager sinkDb) {
+        fileManager = FileManager.getInstance();
+        try {
+            journal = new RentalJournal(directory, Boolean.getBoolean("rental.store.fsync"));
+            if (journal.recover(state) == 0) {
+                seed(sinkDb);
+            }
+        } catch (IOException | SQLException e) {
+            showError("Error recovering rental store", e);
+            throw new IllegalStateException("Rental store could not be opened", e);
+        }
+        sink = sinkDb == null ? null : new AsyncDatabaseSink(sinkDb, this);
+    }
+
+    // A fresh store takes over the database's state, or the usual sample fleet without one
+    private void seed(DatabaseManager db) throws IOException, SQLException {
+        List<String[]> seed = new ArrayList<>();
+        if (db == null) {
+            seed.add(RentalEvent.vehicleAdded(new Vehicle(1, "Toyota Corolla", "Car", 50, 3)));
+            seed.add(RentalEvent.vehicleAdded(new Vehicle(2, "Honda Civic", "Car", 60, 2)));
+            seed.add(RentalEvent.vehicleAdded(new Vehicle(3, "Yamaha R15", "Bike", 30, 5)));
+            seed.add(RentalEvent.vehicleAdded(new Vehicle(4, "Suzuki Swift", "Car", 55, 2)));
+        } else {
+            try (Connection conn = db.getConnection()) {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT id, model, type, rent_per_day, quantity, available_quantity FROM vehicles ORDER BY id");
+                     ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        seed.add(RentalEvent.vehicleAdded(new Vehicle(rs.getInt("id"), rs.getString("model"),
+                                rs.getString("type"), rs.getDouble("rent_per_day"),
+                                rs.getInt("quantity"), rs.getInt("available_quantity"))));
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT id, vehicle_id, username, rent_date FROM rental_records " +
+                                "WHERE return_date IS NULL AND vehicle_id IS NOT NULL ORDER BY id");
+                     ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        seed.add(RentalEvent.rentalRestored(rs.getInt("id"), rs.getInt("vehicle_id"),
+                                rs.getString("username"), rs.getTimestamp("rent_date").toLocalDateTime(), null, 0));
+                    }
+                }
+                // Keep new rental ids clear of the ones already in the database
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT MAX(id) FROM rental_records");
+                     ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        seed.add(RentalEvent.nextIds(1, rs.getInt(1) + 1));
+                    }
+                }
+            }
+        }
+        seed.forEach(state);
+        journal.snapshot(state.snapshot());
+    }
+
+    /**
+     * Journals and applies a change. Callers hold the write lock and have validated it.
+     */
+    private void commit(String[] entry) throws IOException {
+        journal.append(entry);
+        state.accept(entry);
+        if (sink != null) sink.offer(entry);
+        if (journal.getEntriesSinceSnapshot() >= SNAPSHOT_EVERY && snapshotPending.compareAndSet(false, true)) {
+            snapshotter.execute(this::takeSnapshot);
+        }
+    }
+
+    // Writes the periodic snapshot off the rent path; only the rotation and state copy hold the lock
+    private void takeSnapshot() {
+        try {
+            long sequence;
+            List<String[]> snapshot;
+            writeLock.lock();
+            try {
+                sequence = journal.rotate();
+                snapshot = state.snapshot();
+            } finally {
+                writeLock.unlock();
+            }
+            journal.writeSnapshot(sequence, snapshot);
+        } catch (IOException e) {
+            // The journal still holds everything; try again at the next interval
+            e.printStackTrace();
+        } finally {
+            snapshotPending.set(false);
+        }
+    }
+
+    @Override
+    public List<Vehicle> getAllVehicles() {
+        return inventory.getAll();
+    }
+
+    @Override
+    public List<Vehicle> getAvailableVehicles() {
+        return inventory.getAvailable();
+    }
+
+    @Override
+    public List<Vehicle> getAvailableVehicles(String type) {
+        return inventory.getAvailable(type);
+    }
+
+    @Override
+    public AvailabilityIndex.Counts getInventoryCounts(boolean availableOnly) {
+        return inventory.getAvailability().getCounts(availableOnly);
+    }
+
+    @Override
+    public Optional<Vehicle> getVehicleById(int id) {
+        return inventory.get(id);
+    }
+
+    @Override
+    public boolean updateVehicleQuantity(int vehicleId, int newQuantity) {
+        IOException failure;
+        writeLock.lock();
+        try {
+            Optional<Vehicle> vehicle = inventory.get(vehicleId);
+            if (vehicle.isEmpty()) return false;
+
+            int currentRented = vehicle.get().getQuantity() - vehicle.get().getAvailableQuantity();
+            if (newQuantity < currentRented) return false;
+
+            commit(RentalEvent.quantityChanged(vehicleId, newQuantity, newQuantity - currentRented));
+            return true;
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            writeLock.unlock();
+        }
+        // Reported once the write lock is released, so an open dialog blocks no other change
+        showError("Error updating vehicle quantity", failure);
+        return false;
+    }
+
+    @Override
+    public boolean rentVehicle(int id) {
+        String username = LoginPanel.UserSession.getInstance().getUsername();
+        IOException failure = null;
+        writeLock.lock();
+        try {
+            Optional<Vehicle> vehicle = inventory.get(id);
+            if (vehicle.isEmpty() || vehicle.get().getAvailableQuantity() <= 0) return false;
+
+            commit(RentalEvent.rented(state.getNextRentalId(), id, username, LocalDateTime.now()));
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            writeLock.unlock();
+        }
+        if (failure != null) {
+            showError("Error renting vehicle", failure);
+            return false;
+        }
+        fileManager.processRental(username, id, this);
+        return true;
+    }
+
+    @Override
+    public boolean returnVehicle(int vehicleId) {
+        String username = null;
+        LocalDateTime rentDate = null;
+        LocalDateTime returnDate = LocalDateTime.now();
+        Optional<Vehicle> vehicle = Optional.empty();
+        IOException failure = null;
+        writeLock.lock();
+        try {
+            int rentalId = state.latestActiveRental(vehicleId);
+            if (rentalId < 0) return false;
+
+            username = state.getRenter(rentalId);
+            rentDate = state.getRentDate(rentalId);
+            commit(RentalEvent.returned(rentalId, returnDate));
+            vehicle = inventory.get(vehicleId);
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            writeLock.unlock();
+        }
+        if (failure != null) {
+            showError("Error returning vehicle", failure);
+            return false;
+        }
+        // The receipt is for the rental closed above, not whichever one is latest by now
+        if (vehicle.isPresent()) {
+            fileManager.processReturn(username, vehicle.get(), rentDate, returnDate);
+        }
+        return true;
+    }
+
+    @Override
+    public void addVehicle(String model, String type, double rentPerDay, int quantity) {
+        RentalManager.validateVehicleData(model, type, rentPerDay);
+        IOException failure = null;
+        writeLock.lock();
+        try {
+            commit(RentalEvent.vehicleAdded(
+                    new Vehicle(state.getNextVehicleId(), model, type, rentPerDay, quantity)));
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            writeLock.unlock();
+        }
+        if (failure != null) {
+            showError("Error adding vehicle", failure);
+        }
+    }
+
+    @Override
+    public boolean removeVehicle(int id) {
+        boolean hasActiveRentals = false;
+        IOException failure = null;
+        writeLock.lock();
+        try {
+            hasActiveRentals = state.latestActiveRental(id) >= 0;
+            if (!hasActiveRentals) {
+                if (inventory.get(id).isEmpty()) return false;
+
+                commit(RentalEvent.vehicleRemoved(id));
+                return true;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            writeLock.unlock();
+        }
+        // Dialogs wait until the write lock is released, so an open one blocks no other change
+        if (hasActiveRentals) {
+            JOptionPane.showMessageDialog(null, "Cannot remove vehicle with active rentals",
+                    "Remove Failed", JOptionPane.ERROR_MESSAGE);
+        }
+        if (failure != null) {
+            showError("Error removing vehicle", failure);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean updateVehicle(int id, String model, String type, double rentPerDay) {
+        RentalManager.validateVehicleData(model, type, rentPerDay);
+        boolean found = true;
+        IOException failure = null;
+        writeLock.lock();
+        try {
+            found = inventory.get(id).isPresent();
+            if (found) {
+                commit(RentalEvent.vehicleUpdated(id, model, type, rentPerDay));
+                return true;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            writeLock.unlock();
+        }
+        if (!found) {
+            JOptionPane.showMessageDialog(null, "No vehicle found with ID: " + id,
+                    "Update Failed", JOptionPane.ERROR_MESSAGE);
+        }
+        if (failure != null) {
+            showError("Error updating vehicle", failure);
+        }
+        return false;
+    }
+
+    @Override
+    public LocalDateTime getRentalTime(int vehicleId) {
+        return state.getRentalTime(vehicleId);
+    }
+
+    @Override
+    public void updateRentalRecord(int vehicleId, double totalCost) {
+        IOException failure = null;
+        writeLock.lock();
+        try {
+            int rentalId = state.latestReturnedRental(vehicleId);
+            if (rentalId >= 0) {
+                commit(RentalEvent.costRecorded(rentalId, totalCost));
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            writeLock.unlock();
+        }
+        if (failure != null) {
+            showError("Failed to update rental record", failure);
+        }
+    }
+
+    @Override
+    public List<RentalManager.RentalRecord> getUserRentalHistory(String username) {
+        return state.getUserRentalHistory(username);
+    }
+
+    @Override
+    public RentalManager.RentalPage getUserRentalHistory(String username, String cursor, int pageSize, String type) {
+        return state.getUserRentalHistory(username, cursor, pageSize, type);
+    }
+
+    @Override
+    public List<RentalManager.RentalRecord> getActiveRentals() {
+        return state.getActiveRentals();
+    }
+
+    @Override
+    public RentalManager.RentalPage getActiveRentals(String cursor, int pageSize, String type) {
+        return state.getActiveRentals(cursor, pageSize, type);
+    }
+
+    @Override
+    public Stream<RentalManager.RentalRecord> streamRentalRecords() {
+        return state.streamRentalRecords();
+    }
+
+    @Override
+    public boolean isVehicleRentedByUser(String username, int vehicleId) {
+        return state.isVehicleRentedByUser(username, vehicleId);
+    }
+
+    @Override
+    public RentalManager.RentalStatistics getRentalStatistics() {
+        return state.getRentalStatistics();
+    }
+
+    @Override
+    public void closeResources() {
+        // Let a periodic snapshot finish before the final one replaces it
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeLock.lock();
+        try {
+            journal.snapshot(state.snapshot());
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writeLock.unlock();
+        }
+        if (sink != null) sink.shutdown();
+        fileManager.shutdown();
+    }
+
+    private void showError(String message, Exception e) {
+        JOptionPane.showMessageDialog(null, message + ": " + e.getMessage(),
+                "Rental Store Error", JOptionPane.ERROR_MESSAGE);
+        e.printStackTrace();
+    }
+}
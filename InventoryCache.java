@@ -0,0 +1,172 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * In-memory copy of the vehicles table, kept current by {@link RentalManager}'s
+ * write paths so that vehicle reads never touch the database.
+ * <p>
+ * The cache assumes this process is the only writer of the vehicles table.
+ * Stored vehicles are never handed out; readers always get their own copy, so a
+ * caller mutating a returned {@link Vehicle} cannot corrupt the cache.
+ */
+public class InventoryCache {
+    // Ordered by id to match the order the table used to be read in
+    private final ConcurrentSkipListMap<Integer, Vehicle> vehicles = new ConcurrentSkipListMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AvailabilityIndex availability = new AvailabilityIndex();
+    private volatile boolean loaded;
+
+    /**
+     * Replaces the whole cache with a fresh load of the vehicles table
+     */
+    public void loadAll(Collection<Vehicle> fleet) {
+        ConcurrentSkipListMap<Integer, Vehicle> fresh = new ConcurrentSkipListMap<>();
+        for (Vehicle vehicle : fleet) {
+            fresh.put(vehicle.getId(), copyOf(vehicle));
+        }
+        synchronized (availability) {
+            vehicles.keySet().retainAll(fresh.keySet());
+            vehicles.putAll(fresh);
+            availability.clear();
+            for (Vehicle vehicle : fresh.values()) {
+                availability.update(null, vehicle);
+            }
+        }
+        loaded = true;
+    }
+
+    /**
+     * Whether the cache holds the full fleet; until then reads must go to the database
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public Optional<Vehicle> get(int id) {
+        Vehicle vehicle = vehicles.get(id);
+        if (vehicle == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        return Optional.of(copyOf(vehicle));
+    }
+
+    public List<Vehicle> getAll() {
+        hits.incrementAndGet();
+        List<Vehicle> result = new ArrayList<>(vehicles.size());
+        for (Vehicle vehicle : vehicles.values()) {
+            result.add(copyOf(vehicle));
+        }
+        return result;
+    }
+
+    public List<Vehicle> getAvailable() {
+        hits.incrementAndGet();
+        return copyAll(availability.getAvailableIds());
+    }
+
+    public List<Vehicle> getAvailable(String type) {
+        hits.incrementAndGet();
+        return copyAll(availability.getAvailableIds(type));
+    }
+
+    /**
+     * Running totals of the cached fleet
+     */
+    public AvailabilityIndex getAvailability() {
+        return availability;
+    }
+
+    // Only visits the listed ids, so the cost follows the result size rather than the fleet
+    private List<Vehicle> copyAll(Collection<Integer> ids) {
+        List<Vehicle> result = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            Vehicle vehicle = vehicles.get(id);
+            if (vehicle != null) {
+                result.add(copyOf(vehicle));
+            }
+        }
+        return result;
+    }
+
+    // Writers hold the index monitor so the map and the index always change together;
+    // readers never lock. Skip-list compute may re-run its function, so it isn't used here.
+    public void put(Vehicle vehicle) {
+        Vehicle stored = copyOf(vehicle);
+        synchronized (availability) {
+            availability.update(vehicles.put(stored.getId(), stored), stored);
+        }
+    }
+
+    public void remove(int id) {
+        synchronized (availability) {
+            Vehicle previous = vehicles.remove(id);
+            if (previous != null) {
+                availability.update(previous, null);
+            }
+        }
+    }
+
+    private void replace(int id, UnaryOperator<Vehicle> change) {
+        synchronized (availability) {
+            Vehicle previous = vehicles.get(id);
+            if (previous == null) return;
+            Vehicle updated = change.apply(previous);
+            vehicles.put(id, updated);
+            availability.update(previous, updated);
+        }
+    }
+
+    /**
+     * Applies a committed change in available units, e.g. -1 for a rental
+     */
+    public void adjustAvailable(int id, int delta) {
+        replace(id, v -> new Vehicle(v.getId(), v.getModel(), v.getType(),
+                v.getRentPerDay(), v.getQuantity(), v.getAvailableQuantity() + delta));
+    }
+
+    /**
+     * Applies a committed change in fleet size, which changes available units by as much
+     */
+    public void adjustQuantity(int id, int delta) {
+        replace(id, v -> new Vehicle(v.getId(), v.getModel(), v.getType(),
+                v.getRentPerDay(), v.getQuantity() + delta, v.getAvailableQuantity() + delta));
+    }
+
+    public void updateQuantities(int id, int quantity, int availableQuantity) {
+        replace(id, v -> new Vehicle(v.getId(), v.getModel(), v.getType(),
+                v.getRentPerDay(), quantity, availableQuantity));
+    }
+
+    public void updateDetails(int id, String model, String type, double rentPerDay) {
+        replace(id, v -> new Vehicle(v.getId(), model, type,
+                rentPerDay, v.getQuantity(), v.getAvailableQuantity()));
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Lookups by id for vehicles the cache does not hold */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    private static Vehicle copyOf(Vehicle v) {
+        return new Vehicle(v.getId(), v.getModel(), v.getType(), v.getRentPerDay(),
+                v.getQuantity(), v.getAvailableQuantity());
+    }
+}
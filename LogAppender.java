@@ -0,0 +1,364 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Appends lines to one log segment per day from a single background thread.
+ * <p>
+ * The day's file stays open and is switched at midnight. Entries queued while a
+ * write is in progress are written together by the next one, so a burst of rentals
+ * costs one write (and, when flushing, one force) instead of one per line.
+ * Entries are formatted on the writer thread, off the caller's path. Each segment
+ * has a side index of its lines, written after them; see {@link LogIndex}.
+ */
+public class LogAppender implements Closeable {
+    private static final int LINE_SEPARATOR_BYTES = System.lineSeparator().getBytes(StandardCharsets.UTF_8).length;
+    // Queued by close() behind the last entry; never written
+    private static final Entry STOP = new Entry(null, LogIndex.NO_VEHICLE, () -> null);
+
+    /**
+     * When appended entries are forced to disk
+     */
+    public enum FlushPolicy {
+        /** After every write, so an entry is durable once it has been written */
+        ALWAYS,
+        /** At most every flush interval; a crash loses at most that much */
+        INTERVAL,
+        /** Never explicitly; the OS writes the page cache back on its own schedule */
+        OS
+    }
+
+    private final LogIndex index;
+    private final FlushPolicy flushPolicy;
+    private final long flushIntervalNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // Writer thread only
+    private FileChannel channel;
+    private FileChannel indexChannel;
+    private long logSize;
+    private long lastWriteMillis;
+    private long rotateAtMillis;
+    private boolean dirty;
+    private long lastForceNanos = System.nanoTime();
+
+    private final long startedNanos = System.nanoTime();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong forces = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    /**
+     * @param prefix file names are the prefix, the date and ".log", e.g. rental_log_2024-05-01.log
+     */
+    public LogAppender(Path directory, String prefix, FlushPolicy flushPolicy, long flushIntervalMillis,
+                       int maxBatch) {
+        this.index = new LogIndex(directory, prefix);
+        this.flushPolicy = flushPolicy;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.maxBatch = maxBatch;
+        writer = new Thread(this::run, "log-appender-" + prefix);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues an entry; it is formatted and written by the appender thread
+     */
+    public void append(Supplier<String> entry) {
+        append(null, LogIndex.NO_VEHICLE, entry);
+    }
+
+    /**
+     * Queues an entry about a user and a vehicle, indexed so it can be found by either
+     *
+     * @param username  null if the entry is about no user
+     * @param vehicleId {@link LogIndex#NO_VEHICLE} if it is about no vehicle
+     */
+    public void append(String username, int vehicleId, Supplier<String> entry) {
+        if (closed) throw new IllegalStateException("Log appender is closed");
+        queued.incrementAndGet();
+        queue.add(new Entry(username, vehicleId, entry));
+    }
+
+    /**
+     * Queries over the segments this appender writes
+     */
+    public LogIndex getIndex() {
+        return index;
+    }
+
+    public Path getLogFile(LocalDate date) {
+        return index.getLogFile(date);
+    }
+
+    /**
+     * Waits until every entry queued before this call has been written, e.g. before
+     * reading today's file back
+     */
+    public void awaitWritten(long timeoutMillis) throws InterruptedException {
+        long target = queued.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (written) {
+            while (written.get() + failed.get() < target && writer.isAlive()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return;
+                written.wait(remaining);
+            }
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(maxBatch);
+        boolean stopping = false;
+        try {
+            // Opens today's segment up front, repairing its index if the last run died mid-batch
+            channel();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // Not interruptible on purpose: an interrupt mid-write would close the channel
+        while (!stopping) {
+            Entry first;
+            try {
+                first = queue.poll(pollMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                first = null;
+            }
+            if (first != null) {
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                stopping = batch.remove(STOP);
+                if (!batch.isEmpty()) write(batch);
+                batch.clear();
+            }
+            if (dirty && flushPolicy == FlushPolicy.INTERVAL
+                    && System.nanoTime() - lastForceNanos >= flushIntervalNanos) {
+                force();
+            }
+        }
+        if (dirty && flushPolicy != FlushPolicy.OS) force();
+        closeChannel();
+    }
+
+    private long pollMillis() {
+        if (!dirty || flushPolicy != FlushPolicy.INTERVAL) return 1000;
+        long untilForce = flushIntervalNanos - (System.nanoTime() - lastForceNanos);
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(untilForce));
+    }
+
+    private void write(List<Entry> batch) {
+        long started = System.nanoTime();
+        try {
+            FileChannel out = channel();
+            // Recorded time of the whole batch; never behind the previous one, so the index stays sorted
+            long time = Math.max(lastWriteMillis, System.currentTimeMillis());
+            byte[][] lines = new byte[batch.size()][];
+            int size = 0;
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = (batch.get(i).text.get() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+                size += lines[i].length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            ByteBuffer records = ByteBuffer.allocate(lines.length * LogIndex.RECORD_SIZE);
+            long offset = logSize;
+            for (int i = 0; i < lines.length; i++) {
+                Entry entry = batch.get(i);
+                buffer.put(lines[i]);
+                LogIndex.putRecord(records, time, offset, lines[i].length - LINE_SEPARATOR_BYTES,
+                        entry.username, entry.vehicleId);
+                offset += lines[i].length;
+            }
+            buffer.flip();
+            records.flip();
+            // Lines before their index records, so an index never points past the log
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            while (records.hasRemaining()) {
+                indexChannel.write(records);
+            }
+            logSize = offset;
+            lastWriteMillis = time;
+            dirty = true;
+            if (flushPolicy == FlushPolicy.ALWAYS) force();
+
+            batches.incrementAndGet();
+            bytes.addAndGet(size);
+            writeNanos.addAndGet(System.nanoTime() - started);
+            completed(written, batch.size());
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace(); // Don't show dialog for background logging errors
+            // Reopening checks the index against the log and rebuilds it if this batch was cut short
+            closeChannel();
+            completed(failed, batch.size());
+        }
+    }
+
+    private void completed(AtomicLong counter, int entries) {
+        synchronized (written) {
+            counter.addAndGet(entries);
+            written.notifyAll();
+        }
+    }
+
+    // The open segment for today, switching segments once midnight has passed
+    private FileChannel channel() throws IOException {
+        long now = System.currentTimeMillis();
+        if (channel != null && now < rotateAtMillis) return channel;
+
+        if (channel != null) {
+            if (dirty && flushPolicy != FlushPolicy.OS) force();
+            closeChannel();
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate today = LocalDate.now(zone);
+        Path logFile = index.getLogFile(today);
+        Path indexFile = index.getIndexFile(today);
+        Files.createDirectories(logFile.getParent());
+        if (!LogIndex.isConsistent(logFile, indexFile)) {
+            LogIndex.rebuild(logFile, indexFile, today);
+        }
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        logSize = channel.size();
+        rotateAtMillis = today.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        return channel;
+    }
+
+    private void force() {
+        if (channel == null) return;
+        try {
+            channel.force(false);
+            indexChannel.force(false);
+            forces.incrementAndGet();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        dirty = false;
+        lastForceNanos = System.nanoTime();
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+            indexChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+        indexChannel = null;
+        dirty = false;
+    }
+
+    /**
+     * Stops accepting entries, writes and forces what is queued, and closes the file
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        queue.add(STOP);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(written.get(), failed.get(), queued.get() - written.get() - failed.get(),
+                batches.get(), bytes.get(), forces.get(), writeNanos.get(), System.nanoTime() - startedNanos);
+    }
+
+    private static final class Entry {
+        final String username;
+        final int vehicleId;
+        final Supplier<String> text;
+
+        Entry(String username, int vehicleId, Supplier<String> text) {
+            this.username = username;
+            this.vehicleId = vehicleId;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Appender throughput since it was started
+     */
+    public static final class Metrics {
+        private final long entries;
+        private final long failedEntries;
+        private final long pendingEntries;
+        private final long batches;
+        private final long bytes;
+        private final long forces;
+        private final long writeNanos;
+        private final long uptimeNanos;
+
+        Metrics(long entries, long failedEntries, long pendingEntries, long batches, long bytes, long forces,
+                long writeNanos, long uptimeNanos) {
+            this.entries = entries;
+            this.failedEntries = failedEntries;
+            this.pendingEntries = pendingEntries;
+            this.batches = batches;
+            this.bytes = bytes;
+            this.forces = forces;
+            this.writeNanos = writeNanos;
+            this.uptimeNanos = uptimeNanos;
+        }
+
+        public long getEntries() { return entries; }
+        public long getFailedEntries() { return failedEntries; }
+        public long getPendingEntries() { return pendingEntries; }
+        public long getBatches() { return batches; }
+        public long getBytes() { return bytes; }
+        public long getForces() { return forces; }
+
+        public double getEntriesPerBatch() {
+            return batches == 0 ? 0 : (double) entries / batches;
+        }
+
+        public double getEntriesPerSecond() {
+            return uptimeNanos == 0 ? 0 : entries * 1e9 / uptimeNanos;
+        }
+
+        /**
+         * Mean time to format, write and (per policy) force one batch
+         */
+        public double getAverageWriteMicros() {
+            return batches == 0 ? 0 : writeNanos / 1000.0 / batches;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d entries (%d failed, %d pending) in %d writes, %.1f entries/write, " +
+                            "%.0f entries/s, %d bytes, %d forces, %.1f us/write",
+                    entries, failedEntries, pendingEntries, batches, getEntriesPerBatch(),
+                    getEntriesPerSecond(), bytes, forces, getAverageWriteMicros());
+        }
+    }
+}
@@ -0,0 +1,358 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Queries over the daily log segments written by {@link LogAppender}.
+ * <p>
+ * Next to each day's {@code .log} file the appender keeps an {@code .idx} file with one
+ * fixed-size record per line, in write order: when the line was written, where it
+ * starts in the log and how long it is, its vehicle id and a hash of its user. Both
+ * files are read through memory maps. A time range is found by binary search on the
+ * index and users and vehicles through postings built from it, so a query reads only
+ * the lines it returns.
+ */
+public class LogIndex {
+    static final int RECORD_SIZE = 32;
+    static final int NO_VEHICLE = -1;
+    private static final int HAS_USER = 1;
+    private static final int LINE_SEPARATOR_BYTES = System.lineSeparator().getBytes(StandardCharsets.UTF_8).length;
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter ENTRY_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Lines as FileManager writes them; only used to index logs written before the index existed
+    private static final Pattern ENTRY = Pattern.compile("^\\[([^]]+)] .*?User: (.*?), Vehicle ID: (\\d+)");
+    // A day's segment may still receive a batch that started just before midnight
+    private static final long SEAL_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Path directory;
+    private final String prefix;
+    private final ConcurrentSkipListMap<LocalDate, Segment> segments = new ConcurrentSkipListMap<>();
+    private volatile LocalDate lastListed;
+
+    public LogIndex(Path directory, String prefix) {
+        this.directory = directory;
+        this.prefix = prefix;
+        try {
+            if (Files.isDirectory(directory)) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*.log")) {
+                    for (Path file : files) {
+                        String name = file.getFileName().toString();
+                        try {
+                            LocalDate day = LocalDate.parse(name.substring(prefix.length(), name.length() - 4), FILE_DATE);
+                            segments.put(day, new Segment(day));
+                        } catch (DateTimeParseException e) {
+                            // Not a segment
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        lastListed = LocalDate.now();
+    }
+
+    public Path getLogFile(LocalDate day) {
+        return directory.resolve(prefix + day.format(FILE_DATE) + ".log");
+    }
+
+    public Path getIndexFile(LocalDate day) {
+        return directory.resolve(prefix + day.format(FILE_DATE) + ".idx");
+    }
+
+    /**
+     * Every line logged on {@code day}, in write order
+     */
+    public List<String> getEntries(LocalDate day) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Segment segment : segmentsBetween(day, day)) {
+            segment.readAll(lines);
+        }
+        return lines;
+    }
+
+    /**
+     * Lines written from {@code from} to {@code to} inclusive, in write order
+     */
+    public List<String> getEntriesBetween(LocalDateTime from, LocalDateTime to) throws IOException {
+        long fromMillis = toMillis(from);
+        long toMillis = toMillis(to);
+        List<String> lines = new ArrayList<>();
+        for (Segment segment : segmentsBetween(from.toLocalDate(), to.toLocalDate())) {
+            segment.readBetween(fromMillis, toMillis, lines);
+        }
+        return lines;
+    }
+
+    /**
+     * Lines about one user logged on the days from {@code from} to {@code to} inclusive
+     */
+    public List<String> getEntriesForUser(String username, LocalDate from, LocalDate to) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Segment segment : segmentsBetween(from, to)) {
+            segment.readPostings(true, username.hashCode(), lines, line -> username.equals(userOf(line)));
+        }
+        return lines;
+    }
+
+    /**
+     * Lines about one vehicle logged on the days from {@code from} to {@code to} inclusive
+     */
+    public List<String> getEntriesForVehicle(int vehicleId, LocalDate from, LocalDate to) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Segment segment : segmentsBetween(from, to)) {
+            segment.readPostings(false, vehicleId, lines, line -> true);
+        }
+        return lines;
+    }
+
+    private Iterable<Segment> segmentsBetween(LocalDate from, LocalDate to) {
+        // New segments only appear for the current day, so look at the days since the last look
+        LocalDate today = LocalDate.now();
+        for (LocalDate day = lastListed; !day.isAfter(today); day = day.plusDays(1)) {
+            if (!segments.containsKey(day) && Files.exists(getLogFile(day))) {
+                segments.putIfAbsent(day, new Segment(day));
+            }
+        }
+        lastListed = today;
+        return segments.subMap(from, true, to, true).values();
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static String userOf(String line) {
+        Matcher m = ENTRY.matcher(line);
+        return m.find() ? m.group(2) : null;
+    }
+
+    /**
+     * One index record for a line of {@code length} bytes at {@code offset} of the log
+     */
+    static void putRecord(ByteBuffer buffer, long time, long offset, int length, String username, int vehicleId) {
+        buffer.putLong(time);
+        buffer.putLong(offset);
+        buffer.putInt(length);
+        buffer.putInt(vehicleId);
+        buffer.putInt(username == null ? 0 : username.hashCode());
+        buffer.putInt(username == null ? 0 : HAS_USER);
+    }
+
+    /**
+     * Whether the index covers the log exactly: whole records, and the last one ending
+     * where the log ends. A crash between writing a batch to the log and to the index
+     * leaves them inconsistent.
+     */
+    static boolean isConsistent(Path logFile, Path indexFile) throws IOException {
+        long logSize = Files.exists(logFile) ? Files.size(logFile) : 0;
+        if (!Files.exists(indexFile)) return logSize == 0;
+        try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            long size = index.size();
+            if (size % RECORD_SIZE != 0) return false;
+            if (size == 0) return logSize == 0;
+            ByteBuffer last = ByteBuffer.allocate(RECORD_SIZE);
+            index.read(last, size - RECORD_SIZE);
+            return last.getLong(8) + last.getInt(16) + LINE_SEPARATOR_BYTES == logSize;
+        }
+    }
+
+    /**
+     * Replaces the index of a log with one built from its lines. Times come from the
+     * lines' own timestamps, users and vehicles from the FileManager line format.
+     */
+    static void rebuild(Path logFile, Path indexFile, LocalDate day) throws IOException {
+        byte[] content = Files.exists(logFile) ? Files.readAllBytes(logFile) : new byte[0];
+        long dayStart = toMillis(day.atStartOfDay());
+        ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            int start = 0;
+            long time = dayStart;
+            for (int i = 0; i < content.length; i++) {
+                if (content[i] != '\n') continue;
+                int end = i > start && content[i - 1] == '\r' ? i - 1 : i;
+                String line = new String(content, start, end - start, StandardCharsets.UTF_8);
+                String username = null;
+                int vehicleId = NO_VEHICLE;
+                Matcher m = ENTRY.matcher(line);
+                if (m.find()) {
+                    try {
+                        // Never earlier than the line before, so the index stays in time order
+                        time = Math.max(time, toMillis(LocalDateTime.parse(m.group(1), ENTRY_TIME)));
+                    } catch (DateTimeParseException e) {
+                        // Keep the previous line's time
+                    }
+                    username = m.group(2);
+                    vehicleId = Integer.parseInt(m.group(3));
+                }
+                if (!records.hasRemaining()) {
+                    flip(records, out);
+                }
+                putRecord(records, time, start, end - start, username, vehicleId);
+                start = i + 1;
+            }
+            flip(records, out);
+            out.force(true);
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void flip(ByteBuffer records, FileChannel out) throws IOException {
+        records.flip();
+        while (records.hasRemaining()) {
+            out.write(records);
+        }
+        records.clear();
+    }
+
+    private interface LineFilter {
+        boolean accept(String line);
+    }
+
+    /**
+     * Record numbers of one key, in write order
+     */
+    private static final class Postings {
+        int[] records = new int[4];
+        int size;
+
+        void add(int record) {
+            if (size == records.length) records = Arrays.copyOf(records, size * 2);
+            records[size++] = record;
+        }
+    }
+
+    /**
+     * One day's log and index, mapped. Past days are mapped once; the current day is
+     * remapped as it grows and its postings extended with the new records only.
+     */
+    private final class Segment {
+        final LocalDate day;
+        final long sealAt;
+        boolean sealed;
+        MappedByteBuffer log;
+        MappedByteBuffer index;
+        int count;
+        final Map<Integer, Postings> byUser = new HashMap<>();
+        final Map<Integer, Postings> byVehicle = new HashMap<>();
+
+        Segment(LocalDate day) {
+            this.day = day;
+            this.sealAt = toMillis(day.plusDays(1).atStartOfDay()) + SEAL_AFTER_MILLIS;
+        }
+
+        // Maps whatever has been written since the last call and indexes the new records
+        private void refresh() throws IOException {
+            if (sealed) return;
+            boolean complete = System.currentTimeMillis() >= sealAt;
+            Path logFile = getLogFile(day);
+            Path indexFile = getIndexFile(day);
+            if (complete && !isConsistent(logFile, indexFile)) {
+                // Written before indexing existed, or cut short by a crash
+                rebuild(logFile, indexFile, day);
+            }
+            if (!Files.exists(indexFile)) return;
+
+            try (FileChannel logChannel = FileChannel.open(logFile, StandardOpenOption.READ);
+                 FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                long logSize = logChannel.size();
+                long indexSize = indexChannel.size() - indexChannel.size() % RECORD_SIZE;
+                if (logSize > Integer.MAX_VALUE || indexSize > Integer.MAX_VALUE) {
+                    throw new IOException("Log segment too large to map: " + logFile);
+                }
+                if (index == null || indexSize > (long) count * RECORD_SIZE) {
+                    log = logChannel.map(FileChannel.MapMode.READ_ONLY, 0, logSize);
+                    index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexSize);
+                }
+            }
+
+            int total = index.capacity() / RECORD_SIZE;
+            for (int record = count; record < total; record++) {
+                // The index is written after the log, but the log may have been mapped first
+                if (end(record) > log.capacity()) {
+                    total = record;
+                    break;
+                }
+                int base = record * RECORD_SIZE;
+                int vehicleId = index.getInt(base + 20);
+                if (vehicleId != NO_VEHICLE) {
+                    byVehicle.computeIfAbsent(vehicleId, k -> new Postings()).add(record);
+                }
+                if ((index.getInt(base + 28) & HAS_USER) != 0) {
+                    byUser.computeIfAbsent(index.getInt(base + 24), k -> new Postings()).add(record);
+                }
+            }
+            count = total;
+            sealed = complete;
+        }
+
+        private long end(int record) {
+            int base = record * RECORD_SIZE;
+            return index.getLong(base + 8) + index.getInt(base + 16);
+        }
+
+        private String line(int record) {
+            int base = record * RECORD_SIZE;
+            byte[] bytes = new byte[index.getInt(base + 16)];
+            log.get((int) index.getLong(base + 8), bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        synchronized void readAll(List<String> lines) throws IOException {
+            refresh();
+            for (int record = 0; record < count; record++) {
+                lines.add(line(record));
+            }
+        }
+
+        synchronized void readBetween(long fromMillis, long toMillis, List<String> lines) throws IOException {
+            refresh();
+            // First record written at or after fromMillis
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (index.getLong(mid * RECORD_SIZE) < fromMillis) low = mid + 1;
+                else high = mid;
+            }
+            for (int record = low; record < count && index.getLong(record * RECORD_SIZE) <= toMillis; record++) {
+                lines.add(line(record));
+            }
+        }
+
+        synchronized void readPostings(boolean user, int key, List<String> lines, LineFilter filter)
+                throws IOException {
+            refresh();
+            Postings postings = (user ? byUser : byVehicle).get(key);
+            if (postings == null) return;
+            for (int i = 0; i < postings.size; i++) {
+                String line = line(postings.records[i]);
+                // Users are looked up by hash, so a line may belong to another user
+                if (filter.accept(line)) lines.add(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs EXPLAIN on every {@link RentalManager} statement that reads or changes existing
+ * rows and reports any full table scan.
+ * <p>
+ * Statements are explained with sample parameters. A MySQL plan row with access type
+ * {@code ALL}, or an H2 plan containing {@code tableScan}, counts as a full scan.
+ * Reads of a whole table by design, such as loading the fleet, streaming every rental
+ * or summing revenue, are explained too but may scan. Inserts have no access path and
+ * are left out. An optimizer may choose to scan a table of a few rows, so results are
+ * only meaningful on realistic data.
+ * <p>
+ * With {@code rental.db.checkPlans} set, startup fails on any scan. CI runs {@link #main}
+ * against a database loaded with production-sized data, e.g.
+ * {@code java -Drental.db.backend=embedded -cp <classes> QueryPlanCheck}, and fails the
+ * build on exit status 1.
+ */
+public class QueryPlanCheck {
+    private static final Timestamp SAMPLE_TIME = Timestamp.valueOf("2024-01-01 00:00:00");
+    private static final String SAMPLE_USER = "plan-check";
+    private static final int SAMPLE_LIMIT = 51;
+
+    private static final List<Query> QUERIES = Arrays.asList(
+            new Query("return: open rental of a vehicle", RentalManager.OPEN_RENTAL_QUERY, 1),
+            new Query("batch return: open rentals of a vehicle", RentalManager.OPEN_RENTALS_QUERY, 1, 2),
+            new Query("rent: vehicle rented by user", RentalManager.RENTED_BY_USER_QUERY, 1, SAMPLE_USER),
+            new Query("active rentals", RentalManager.ACTIVE_RENTALS_QUERY),
+            new Query("active rentals page",
+                    RentalManager.pageQuery(RentalManager.ACTIVE_RENTALS_FILTER, true, true, false),
+                    SAMPLE_TIME, SAMPLE_TIME, 1L, SAMPLE_LIMIT),
+            new Query("active rentals page by type",
+                    RentalManager.pageQuery(RentalManager.ACTIVE_RENTALS_FILTER, true, true, true),
+                    SAMPLE_TIME, SAMPLE_TIME, 1L, "Car", SAMPLE_LIMIT),
+            new Query("rental history", RentalManager.USER_HISTORY_QUERY, SAMPLE_USER),
+            new Query("rental history page",
+                    RentalManager.pageQuery(RentalManager.USER_HISTORY_FILTER, false, true, false),
+                    SAMPLE_USER, SAMPLE_TIME, SAMPLE_TIME, 1L, SAMPLE_LIMIT),
+            new Query("rental history page by type",
+                    RentalManager.pageQuery(RentalManager.USER_HISTORY_FILTER, false, true, true),
+                    SAMPLE_USER, SAMPLE_TIME, SAMPLE_TIME, 1L, "Car", SAMPLE_LIMIT),
+            new Query("remove: open rentals of a vehicle", RentalManager.OPEN_RENTAL_COUNT_QUERY, 1),
+            new Query("rental time: open rental", RentalManager.OPEN_RENT_DATE_QUERY, 1),
+            new Query("rental time: last rental", RentalManager.LAST_RENT_DATE_QUERY, 1),
+            new Query("cost: last returned rental", RentalManager.LAST_RETURNED_QUERY, 1),
+            new Query("statistics: open rentals", RentalManager.ACTIVE_COUNT_QUERY),
+            new Query("return: close rental", RentalManager.CLOSE_RENTAL_UPDATE, SAMPLE_TIME, 1),
+            new Query("return: close open rental", RentalManager.CLOSE_OPEN_RENTAL_UPDATE, SAMPLE_TIME, 1),
+            new Query("cost: record", RentalManager.COST_UPDATE, 0.0, 1),
+            new Query("vehicle by id", RentalManager.VEHICLE_QUERY, 1),
+            new Query("vehicle quantities", RentalManager.VEHICLE_QUANTITY_QUERY, 1),
+            new Query("quantity: lock vehicle", RentalManager.LOCK_VEHICLE_QUANTITY_QUERY, 1),
+            new Query("rent: lock vehicle", RentalManager.LOCK_VEHICLE_QUERY, 1),
+            new Query("receipt: vehicle", RentalManager.RECEIPT_VEHICLE_QUERY, 1),
+            new Query("quantity: set", RentalManager.SET_QUANTITY_UPDATE, 1, 1, true, 1),
+            new Query("rent: take unit", RentalManager.TAKE_UNIT_UPDATE, 1),
+            new Query("rent: claim unit", RentalManager.CLAIM_UNIT_UPDATE, 1),
+            new Query("return: release unit", RentalManager.RELEASE_UNIT_UPDATE, 1),
+            new Query("return: give unit back", RentalManager.RETURN_UNIT_UPDATE, 1),
+            new Query("vehicle: update", RentalManager.VEHICLE_DETAILS_UPDATE, "model", "Car", 1.0, 1),
+            new Query("vehicle: remove", RentalManager.DELETE_VEHICLE_UPDATE, 1),
+            Query.wholeTable("fleet", RentalManager.FLEET_QUERY),
+            Query.wholeTable("available fleet", RentalManager.AVAILABLE_FLEET_QUERY),
+            Query.wholeTable("statistics: vehicles", RentalManager.FLEET_COUNT_QUERY),
+            Query.wholeTable("statistics: available vehicles", RentalManager.AVAILABLE_COUNT_QUERY),
+            Query.wholeTable("statistics: revenue", RentalManager.REVENUE_QUERY),
+            Query.wholeTable("stream all rentals", RentalManager.ALL_RENTALS_QUERY));
+
+    /**
+     * Explains every statement on {@code conn}
+     *
+     * @return one line per full scan outside the whole-table reads, empty if none
+     */
+    public static List<String> check(Connection conn) throws SQLException {
+        List<String> scans = new ArrayList<>();
+        for (Query query : QUERIES) {
+            try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN " + query.sql)) {
+                for (int i = 0; i < query.params.length; i++) {
+                    stmt.setObject(i + 1, query.params[i]);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (query.wholeTable) continue;
+                    boolean tabular = hasColumn(rs.getMetaData(), "type");
+                    while (rs.next()) {
+                        if (tabular) {
+                            // MySQL: one row per table in the plan
+                            if ("ALL".equalsIgnoreCase(rs.getString("type"))) {
+                                scans.add(query.name + ": full scan of " + rs.getString("table"));
+                            }
+                        } else {
+                            // H2: the plan as text, with the access path of each table in a comment
+                            String plan = rs.getString(1);
+                            if (plan != null && plan.contains("tableScan")) {
+                                scans.add(query.name + ": " + plan.replaceAll("\\s+", " "));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return scans;
+    }
+
+    /**
+     * Checks the plans and fails on any full scan, or if a statement cannot be explained
+     *
+     * @throws IllegalStateException listing every full scan
+     */
+    public static void verify(Connection conn) {
+        List<String> scans;
+        try {
+            scans = check(conn);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Query plan check failed: " + e.getMessage(), e);
+        }
+        if (!scans.isEmpty()) {
+            throw new IllegalStateException("Query plan check found " + scans.size() + " full scan(s):\n"
+                    + String.join("\n", scans));
+        }
+    }
+
+    private static boolean hasColumn(ResultSetMetaData meta, String name) throws SQLException {
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            if (name.equalsIgnoreCase(meta.getColumnLabel(i))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks the database named by the {@code rental.db.*} system properties, bringing
+     * its schema up to date first
+     */
+    public static void main(String[] args) throws SQLException {
+        DatabaseBackend backend = DatabaseBackend.fromSystemProperties();
+        backend.prepare();
+        List<String> scans;
+        try (Connection conn = backend.openConnection()) {
+            new SchemaMigrator().migrate(conn);
+            scans = check(conn);
+        }
+        for (String scan : scans) {
+            System.out.println(scan);
+        }
+        System.out.println(scans.isEmpty() ? "No full scans in " + QUERIES.size() + " queries"
+                : scans.size() + " full scan(s)");
+        System.exit(scans.isEmpty() ? 0 : 1);
+    }
+
+    private static final class Query {
+        final String name;
+        final String sql;
+        final Object[] params;
+        // Reads a whole table by design; explained, but a scan is not reported
+        final boolean wholeTable;
+
+        Query(String name, String sql, Object... params) {
+            this(false, name, sql, params);
+        }
+
+        private Query(boolean wholeTable, String name, String sql, Object[] params) {
+            this.name = name;
+            this.sql = sql;
+            this.params = params;
+            this.wholeTable = wholeTable;
+        }
+
+        static Query wholeTable(String name, String sql) {
+            return new Query(true, name, sql, new Object[0]);
+        }
+    }
+}
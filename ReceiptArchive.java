@@ -0,0 +1,320 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold receipts packed into append-only archive segments.
+ * <p>
+ * {@link #pack} gathers receipt files into blocks of about {@code BLOCK_BYTES}, deflates
+ * each block and appends it to the current segment, {@code segment-00001.pack} and so
+ * on, starting a new segment past {@code SEGMENT_BYTES}. A block is a header (compressed
+ * length, uncompressed length, CRC32 of the uncompressed bytes) followed by the
+ * compressed bytes. {@code index.log} records, per receipt, its segment, the block's
+ * offset and where the receipt lies in the uncompressed block, so reading one receipt
+ * is one positional read and one block inflate.
+ * <p>
+ * The segment is forced before the index lines are appended, and the index before the
+ * loose files are deleted: after a crash a block may be unreferenced, or a receipt may
+ * be both loose and archived, but none is lost. Segments are never rewritten.
+ */
+public class ReceiptArchive implements Closeable {
+    private static final String INDEX_FILE = "index.log";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".pack";
+    private static final int BLOCK_BYTES = 64 * 1024;
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final int HEADER_BYTES = 12;
+
+    private final Path directory;
+    private final Map<String, Location> locations = new HashMap<>();
+    private final Map<Integer, FileChannel> readers = new HashMap<>();
+    private FileChannel indexChannel;
+    private FileChannel segment;
+    private int segmentNumber;
+
+    public ReceiptArchive(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Reads the index and opens the newest segment for appending
+     */
+    public synchronized void load() throws IOException {
+        Files.createDirectories(directory);
+        Path indexPath = directory.resolve(INDEX_FILE);
+        indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        byte[] content = Files.readAllBytes(indexPath);
+        int end = content.length;
+        while (end > 0 && content[end - 1] != '\n') end--;
+        if (end < content.length) {
+            // The process died mid-append; those receipts are still loose
+            indexChannel.truncate(end);
+        }
+        for (String[] fields : RentalEvent.decodeLines(new String(content, 0, end, StandardCharsets.UTF_8))) {
+            locations.put(fields[0], new Location(Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+                    Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+        }
+        indexChannel.position(indexChannel.size());
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segmentNumber = Math.max(segmentNumber, Integer.parseInt(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not a segment
+                }
+            }
+        }
+        if (segmentNumber == 0) segmentNumber = 1;
+        segment = openSegment(segmentNumber);
+    }
+
+    private Path getSegmentFile(int number) {
+        return directory.resolve(String.format("%s%05d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private FileChannel openSegment(int number) throws IOException {
+        FileChannel channel = FileChannel.open(getSegmentFile(number), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    public synchronized boolean contains(String fileName) {
+        return locations.containsKey(fileName);
+    }
+
+    public synchronized int size() {
+        return locations.size();
+    }
+
+    /**
+     * Moves receipt files into the archive, named by their file names. Files that are
+     * already archived, e.g. left behind by a crash, are just deleted. Files are read and
+     * compressed without holding the archive's lock, so reads go on meanwhile; only
+     * appending a block and indexing it are serialized.
+     *
+     * @return the number of receipts archived
+     */
+    public int pack(List<Path> files) throws IOException {
+        int packed = 0;
+        List<Path> block = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        int blockSize = 0;
+        for (Path file : files) {
+            if (contains(file.getFileName().toString())) {
+                Files.deleteIfExists(file);
+                continue;
+            }
+            byte[] content;
+            try {
+                content = Files.readAllBytes(file);
+            } catch (NoSuchFileException e) {
+                // Removed since it was listed
+                continue;
+            }
+            if (blockSize > 0 && blockSize + content.length > BLOCK_BYTES) {
+                packed += writeBlock(block, contents, blockSize);
+                block.clear();
+                contents.clear();
+                blockSize = 0;
+            }
+            block.add(file);
+            contents.add(content);
+            blockSize += content.length;
+        }
+        if (!block.isEmpty()) {
+            packed += writeBlock(block, contents, blockSize);
+        }
+        return packed;
+    }
+
+    private int writeBlock(List<Path> files, List<byte[]> contents, int size) throws IOException {
+        byte[] raw = new byte[size];
+        int[] offsets = new int[contents.size()];
+        int offset = 0;
+        for (int i = 0; i < contents.size(); i++) {
+            offsets[i] = offset;
+            System.arraycopy(contents.get(i), 0, raw, offset, contents.get(i).length);
+            offset += contents.get(i).length;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        byte[] compressed = deflate(raw);
+
+        int indexed = append(files, offsets, contents, raw.length, (int) crc.getValue(), compressed);
+        // Indexed and forced, so the loose copies can go; a reader may still be using one
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        return indexed;
+    }
+
+    // Writes a compressed block to the current segment and indexes the receipts in it
+    private synchronized int append(List<Path> files, int[] offsets, List<byte[]> contents, int rawLength,
+                                    int checksum, byte[] compressed) throws IOException {
+        if (segment == null) throw new IOException("Receipt archive is not open");
+        if (segment.size() > 0 && segment.size() + HEADER_BYTES + compressed.length > SEGMENT_BYTES) {
+            segment.force(true);
+            segment.close();
+            segment = openSegment(++segmentNumber);
+        }
+        long blockOffset = segment.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(compressed.length).putInt(rawLength).putInt(checksum).flip();
+        ByteBuffer[] block = {header, ByteBuffer.wrap(compressed)};
+        while (block[1].hasRemaining()) {
+            segment.write(block);
+        }
+        segment.force(false);
+
+        StringBuilder lines = new StringBuilder();
+        int indexed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            String fileName = files.get(i).getFileName().toString();
+            // Packed by a concurrent run since it was read; this copy is left unreferenced
+            if (locations.containsKey(fileName)) continue;
+            indexed++;
+            lines.append(RentalEvent.encode(new String[]{fileName, Integer.toString(segmentNumber),
+                    Long.toString(blockOffset), Integer.toString(offsets[i]),
+                    Integer.toString(contents.get(i).length)}));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            indexChannel.write(buffer);
+        }
+        indexChannel.force(false);
+
+        for (int i = 0; i < files.size(); i++) {
+            String fileName = files.get(i).getFileName().toString();
+            if (!locations.containsKey(fileName)) {
+                locations.put(fileName, new Location(segmentNumber, blockOffset, offsets[i],
+                        contents.get(i).length));
+            }
+        }
+        return indexed;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, raw.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) out = Arrays.copyOf(out, out.length * 2);
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads one archived receipt
+     */
+    public Optional<byte[]> read(String fileName) throws IOException {
+        Location location;
+        FileChannel reader;
+        synchronized (this) {
+            location = locations.get(fileName);
+            if (location == null) return Optional.empty();
+            reader = readers.get(location.segment);
+            if (reader == null) {
+                reader = FileChannel.open(getSegmentFile(location.segment), StandardOpenOption.READ);
+                readers.put(location.segment, reader);
+            }
+        }
+        // Positional reads, so readers don't contend on the channel position
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(reader, header, location.blockOffset);
+        header.flip();
+        int compressedLength = header.getInt();
+        int rawLength = header.getInt();
+        int checksum = header.getInt();
+        ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+        readFully(reader, compressed, location.blockOffset + HEADER_BYTES);
+
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, rawLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                length += n;
+            }
+            if (length != rawLength) throw new IOException("Truncated archive block for " + fileName);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive block for " + fileName, e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        if ((int) crc.getValue() != checksum) throw new IOException("Corrupt archive block for " + fileName);
+        return Optional.of(Arrays.copyOfRange(raw, location.offset, location.offset + location.length));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) throw new IOException("Archive segment ends early");
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel reader : readers.values()) {
+            reader.close();
+        }
+        readers.clear();
+        if (segment != null) {
+            segment.close();
+            segment = null;
+        }
+        if (indexChannel != null) {
+            indexChannel.close();
+            indexChannel = null;
+        }
+    }
+
+    private static final class Location {
+        final int segment;
+        final long blockOffset;
+        // Within the uncompressed block
+        final int offset;
+        final int length;
+
+        Location(int segment, long blockOffset, int offset, int length) {
+            this.segment = segment;
+            this.blockOffset = blockOffset;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Where every receipt is, by file name, receipt id, user and vehicle.
+ * <p>
+ * Receipt files are spread over 256 shard directories under the receipts directory,
+ * picked from a hash of the file name, so no directory grows without bound and a
+ * receipt's location follows from its name alone. {@code catalog.log} holds one line
+ * per receipt, appended once the receipt has been written. It is read into memory on
+ * {@link #load}, and the in-memory indexes are extended on every {@link #add}, so a
+ * lookup costs only the receipts it returns. A receipt whose line was lost in a crash
+ * is still at its path, but isn't listed.
+ * <p>
+ * Receipts written before the catalog existed lie loose in the receipts directory;
+ * {@link #load} moves them into their shards and catalogs them.
+ */
+public class ReceiptCatalog implements Closeable {
+    private static final String CATALOG_FILE = "catalog.log";
+    private static final DateTimeFormatter LEGACY_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+    // Lines of the receipts FileManager wrote before the catalog existed
+    private static final Pattern LEGACY_RECEIPT_ID = Pattern.compile("^Receipt ID: (\\S+)");
+    private static final Pattern LEGACY_UNIT = Pattern.compile("^ {2}ID (\\d+):");
+
+    private final Path root;
+    private final Map<String, Entry> byFileName = new HashMap<>();
+    private final Map<String, Entry> byId = new HashMap<>();
+    private final Map<String, List<Entry>> byUser = new HashMap<>();
+    private final Map<Integer, List<Entry>> byVehicle = new HashMap<>();
+    private final NavigableMap<LocalDateTime, List<Entry>> byTime = new TreeMap<>();
+    // Ids handed out by reserve() whose receipts haven't been added yet
+    private final Set<String> reserved = new HashSet<>();
+    private FileChannel channel;
+
+    public ReceiptCatalog(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Reads the catalog and opens it for appending, cataloging any loose receipts first
+     */
+    public synchronized void load() throws IOException {
+        Files.createDirectories(root);
+        Path catalogPath = root.resolve(CATALOG_FILE);
+        channel = FileChannel.open(catalogPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        byte[] content = Files.readAllBytes(catalogPath);
+        int end = content.length;
+        while (end > 0 && content[end - 1] != '\n') end--;
+        if (end < content.length) {
+            // The process died mid-append
+            channel.truncate(end);
+        }
+        for (String[] fields : RentalEvent.decodeLines(new String(content, 0, end, StandardCharsets.UTF_8))) {
+            index(Entry.decode(fields));
+        }
+        channel.position(channel.size());
+        migrateLooseReceipts();
+    }
+
+    /**
+     * The file for a receipt named {@code fileName}, whether or not it exists yet
+     */
+    public Path getPath(String fileName) {
+        return root.resolve(shard(fileName)).resolve(fileName);
+    }
+
+    private static String shard(String fileName) {
+        return String.format("%02x", fileName.hashCode() & 0xFF);
+    }
+
+    /**
+     * Claims {@code receiptId} for a receipt about to be written
+     *
+     * @return false if a cataloged or pending receipt already has that id
+     */
+    public synchronized boolean reserve(String receiptId) {
+        return !byId.containsKey(receiptId) && reserved.add(receiptId);
+    }
+
+    /**
+     * Catalogs a receipt once its file has been written to {@link #getPath}
+     */
+    public synchronized void add(Entry entry) throws IOException {
+        reserved.remove(entry.receiptId);
+        if (channel == null) throw new IOException("Receipt catalog is not open");
+        ByteBuffer buffer = ByteBuffer.wrap(RentalEvent.encode(entry.encode()).getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        index(entry);
+    }
+
+    private void index(Entry entry) {
+        byFileName.put(entry.fileName, entry);
+        if (!entry.receiptId.isEmpty()) byId.put(entry.receiptId, entry);
+        byUser.computeIfAbsent(entry.username, u -> new ArrayList<>()).add(entry);
+        for (int vehicleId : entry.vehicleIds) {
+            byVehicle.computeIfAbsent(vehicleId, v -> new ArrayList<>()).add(entry);
+        }
+        byTime.computeIfAbsent(entry.time, t -> new ArrayList<>()).add(entry);
+    }
+
+    public synchronized Optional<Entry> findByFileName(String fileName) {
+        return Optional.ofNullable(byFileName.get(fileName));
+    }
+
+    public synchronized Optional<Entry> findById(String receiptId) {
+        return Optional.ofNullable(byId.get(receiptId));
+    }
+
+    /**
+     * A user's receipts, oldest first
+     */
+    public synchronized List<Entry> findByUser(String username) {
+        return new ArrayList<>(byUser.getOrDefault(username, Collections.emptyList()));
+    }
+
+    /**
+     * Receipts listing a vehicle, oldest first
+     */
+    public synchronized List<Entry> findByVehicle(int vehicleId) {
+        return new ArrayList<>(byVehicle.getOrDefault(vehicleId, Collections.emptyList()));
+    }
+
+    /**
+     * Receipts written at or after {@code from} and before {@code to}, oldest first
+     *
+     * @param from null for no lower bound
+     */
+    public synchronized List<Entry> findWrittenBetween(LocalDateTime from, LocalDateTime to) {
+        NavigableMap<LocalDateTime, List<Entry>> range = from == null
+                ? byTime.headMap(to, false) : byTime.subMap(from, true, to, false);
+        List<Entry> entries = new ArrayList<>();
+        for (List<Entry> written : range.values()) {
+            entries.addAll(written);
+        }
+        return entries;
+    }
+
+    public synchronized int size() {
+        return byFileName.size();
+    }
+
+    // Moves receipts from the flat layout into shards; runs until none are left
+    private void migrateLooseReceipts() throws IOException {
+        List<Path> loose = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, "*.txt")) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) loose.add(file);
+            }
+        }
+        for (Path file : loose) {
+            String fileName = file.getFileName().toString();
+            // Cataloged before the move, so a crash in between is finished on the next load
+            if (!byFileName.containsKey(fileName)) {
+                Entry entry = parseLegacy(file);
+                // Not a receipt this system wrote; left where it is
+                if (entry == null) continue;
+                add(entry);
+            }
+            Path target = getPath(fileName);
+            Files.createDirectories(target.getParent());
+            Files.move(file, target);
+        }
+    }
+
+    // Legacy names are user_kind_number_yyyy-MM-dd_HH-mm-ss.txt, where number is the
+    // vehicle id, or the number of vehicles on a batch receipt
+    private Entry parseLegacy(Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        String[] parts = fileName.substring(0, fileName.length() - 4).split("_");
+        if (parts.length < 5) return null;
+        int n = parts.length;
+        LocalDateTime time;
+        try {
+            time = LocalDateTime.parse(parts[n - 2] + "_" + parts[n - 1], LEGACY_TIME);
+            Integer.parseInt(parts[n - 3]);
+        } catch (DateTimeParseException | NumberFormatException e) {
+            return null;
+        }
+        String kind = parts[n - 4];
+        String username = String.join("_", Arrays.asList(parts).subList(0, n - 4));
+
+        String receiptId = "";
+        List<Integer> vehicleIds = new ArrayList<>();
+        boolean batch = kind.startsWith("batch-");
+        if (!batch) vehicleIds.add(Integer.parseInt(parts[n - 3]));
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            Matcher id = LEGACY_RECEIPT_ID.matcher(line);
+            if (receiptId.isEmpty() && id.find() && !byId.containsKey(id.group(1))) {
+                receiptId = id.group(1);
+            }
+            Matcher unit = LEGACY_UNIT.matcher(line);
+            if (batch && unit.find()) vehicleIds.add(Integer.parseInt(unit.group(1)));
+        }
+        return new Entry(receiptId, username, kind, time,
+                vehicleIds.stream().mapToInt(Integer::intValue).toArray(), fileName);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.force(true);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * One cataloged receipt
+     */
+    public static final class Entry {
+        private final String receiptId;
+        private final String username;
+        private final String kind;
+        private final LocalDateTime time;
+        private final int[] vehicleIds;
+        private final String fileName;
+
+        /**
+         * @param receiptId  empty for an old receipt whose id couldn't be read
+         * @param vehicleIds every vehicle on the receipt
+         */
+        public Entry(String receiptId, String username, String kind, LocalDateTime time, int[] vehicleIds,
+                     String fileName) {
+            this.receiptId = receiptId;
+            this.username = username;
+            this.kind = kind;
+            this.time = time;
+            this.vehicleIds = vehicleIds.clone();
+            this.fileName = fileName;
+        }
+
+        public String getReceiptId() { return receiptId; }
+        public String getUsername() { return username; }
+        public String getKind() { return kind; }
+        public LocalDateTime getTime() { return time; }
+        public int[] getVehicleIds() { return vehicleIds.clone(); }
+        public String getFileName() { return fileName; }
+
+        String[] encode() {
+            StringBuilder ids = new StringBuilder();
+            for (int vehicleId : vehicleIds) {
+                if (ids.length() > 0) ids.append(',');
+                ids.append(vehicleId);
+            }
+            return new String[]{receiptId, username, kind, Long.toString(RentalEvent.toMillis(time)),
+                    ids.toString(), fileName};
+        }
+
+        static Entry decode(String[] fields) {
+            int[] vehicleIds = fields[4].isEmpty() ? new int[0]
+                    : Arrays.stream(fields[4].split(",")).mapToInt(Integer::parseInt).toArray();
+            return new Entry(fields[0], fields[1], fields[2], RentalEvent.toDateTime(fields[3]), vehicleIds,
+                    fields[5]);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receipts of {@link RentalManager} rentals and returns, produced after commit.
+ * <p>
+ * A receipt request is inserted into {@code receipt_outbox} in the same transaction
+ * as the rental it is for, carrying everything the receipt shows, so the transaction
+ * only runs SQL: no file is written and no dialog is shown while rows are locked.
+ * A background worker renders pending requests through {@link FileManager} and marks
+ * them processed. A request whose rental rolled back never becomes visible, and one
+ * committed just before a crash is rendered on the next start.
+ * <p>
+ * Each process renders its own requests, so receipts open on the desk that made
+ * them; requests left behind by a process that stopped are adopted by any process
+ * after {@code rental.receipts.adoptAfterSeconds}.
+ */
+public class ReceiptOutbox {
+    public static final String RENTAL = "rental";
+    public static final String RETURN = "return";
+    public static final String BATCH_RENTAL = "batch-rental";
+    public static final String BATCH_RETURN = "batch-return";
+
+    private static final long POLL_MILLIS = Long.getLong("rental.receipts.pollMillis", 5000);
+    private static final long ADOPT_AFTER_SECONDS = Long.getLong("rental.receipts.adoptAfterSeconds", 300);
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int BATCH_SIZE = 100;
+
+    private final DatabaseManager dbManager;
+    private final FileManager fileManager;
+    private final String owner = UUID.randomUUID().toString();
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "receipt-outbox");
+        t.setDaemon(true);
+        return t;
+    });
+    // Collapses signals that arrive while a drain is already queued
+    private final AtomicBoolean drainQueued = new AtomicBoolean();
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public ReceiptOutbox(DatabaseManager dbManager, FileManager fileManager) {
+        this.dbManager = dbManager;
+        this.fileManager = fileManager;
+    }
+
+    /**
+     * Starts the worker; it picks up anything left pending by a previous run first
+     */
+    public void start() {
+        worker.scheduleWithFixedDelay(this::drain, 0, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One vehicle on a receipt; {@code rentDate} is when it was rented
+     */
+    public static String[] unit(Vehicle vehicle, LocalDateTime rentDate) {
+        return new String[]{Integer.toString(vehicle.getId()), vehicle.getModel(), vehicle.getType(),
+                Double.toString(vehicle.getRentPerDay()), Long.toString(RentalEvent.toMillis(rentDate))};
+    }
+
+    /**
+     * Records a receipt request on {@code conn}, in the caller's transaction
+     *
+     * @param time  the rent time for rentals, the return time for returns
+     * @param units from {@link #unit}, one per vehicle on the receipt
+     */
+    public void enqueue(Connection conn, String kind, String username, LocalDateTime time, List<String[]> units)
+            throws SQLException {
+        StringBuilder payload = new StringBuilder();
+        for (String[] unit : units) {
+            payload.append(RentalEvent.encode(unit));
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO receipt_outbox (kind, username, event_time, payload, owner, attempts, created_at) " +
+                        "VALUES (?, ?, ?, ?, ?, 0, ?)")) {
+            stmt.setString(1, kind);
+            stmt.setString(2, username);
+            stmt.setTimestamp(3, Timestamp.valueOf(time));
+            stmt.setString(4, payload.toString());
+            stmt.setString(5, owner);
+            stmt.setTimestamp(6, new Timestamp(System.currentTimeMillis()));
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Asks the worker to render pending receipts now; call after committing requests
+     */
+    public void signal() {
+        if (drainQueued.compareAndSet(false, true)) {
+            try {
+                worker.execute(() -> {
+                    drainQueued.set(false);
+                    drain();
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down; shutdown() renders what is left
+                drainQueued.set(false);
+            }
+        }
+    }
+
+    private static final class Request {
+        final long id;
+        final int attempts;
+        final String kind;
+        final String username;
+        final LocalDateTime time;
+        final String payload;
+
+        Request(long id, int attempts, String kind, String username, LocalDateTime time, String payload) {
+            this.id = id;
+            this.attempts = attempts;
+            this.kind = kind;
+            this.username = username;
+            this.time = time;
+            this.payload = payload;
+        }
+    }
+
+    // Worker thread only
+    private void drain() {
+        try {
+            List<Request> pending;
+            do {
+                pending = fetchPending();
+                for (Request request : pending) {
+                    if (!claim(request)) continue;
+                    boolean ok;
+                    try {
+                        ok = render(request);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        ok = false;
+                    }
+                    if (ok) {
+                        markProcessed(request.id);
+                        rendered.incrementAndGet();
+                    } else {
+                        // Stays pending until MAX_ATTEMPTS claims have failed
+                        failed.incrementAndGet();
+                    }
+                }
+            } while (pending.size() == BATCH_SIZE);
+        } catch (SQLException e) {
+            // Runs in the background; the next poll tries again
+            e.printStackTrace();
+        }
+    }
+
+    private List<Request> fetchPending() throws SQLException {
+        List<Request> pending = new ArrayList<>();
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT id, attempts, kind, username, event_time, payload FROM receipt_outbox " +
+                             "WHERE processed_at IS NULL AND attempts < ? AND (owner = ? OR created_at < ?) " +
+                             "ORDER BY id LIMIT " + BATCH_SIZE)) {
+            stmt.setInt(1, MAX_ATTEMPTS);
+            stmt.setString(2, owner);
+            stmt.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now().minusSeconds(ADOPT_AFTER_SECONDS)));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    pending.add(new Request(rs.getLong("id"), rs.getInt("attempts"), rs.getString("kind"),
+                            rs.getString("username"), rs.getTimestamp("event_time").toLocalDateTime(),
+                            rs.getString("payload")));
+                }
+            }
+        }
+        return pending;
+    }
+
+    // Takes the request over for this attempt; fails if another process claimed it first
+    private boolean claim(Request request) throws SQLException {
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "UPDATE receipt_outbox SET owner = ?, attempts = attempts + 1 " +
+                             "WHERE id = ? AND attempts = ? AND processed_at IS NULL")) {
+            stmt.setString(1, owner);
+            stmt.setLong(2, request.id);
+            stmt.setInt(3, request.attempts);
+            return stmt.executeUpdate() == 1;
+        }
+    }
+
+    private void markProcessed(long id) throws SQLException {
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "UPDATE receipt_outbox SET processed_at = ? WHERE id = ?")) {
+            stmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            stmt.setLong(2, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    private boolean render(Request request) {
+        List<Vehicle> vehicles = new ArrayList<>();
+        List<LocalDateTime> rentDates = new ArrayList<>();
+        for (String[] unit : RentalEvent.decodeLines(request.payload)) {
+            vehicles.add(new Vehicle(Integer.parseInt(unit[0]), unit[1], unit[2], Double.parseDouble(unit[3]), 1));
+            rentDates.add(RentalEvent.toDateTime(unit[4]));
+        }
+        switch (request.kind) {
+            case RENTAL:
+                return fileManager.processRental(request.username, vehicles.get(0), request.time);
+            case RETURN:
+                return fileManager.processReturn(request.username, vehicles.get(0), rentDates.get(0), request.time);
+            case BATCH_RENTAL:
+                return fileManager.processBatchRental(request.username, vehicles, request.time);
+            case BATCH_RETURN:
+                return fileManager.processBatchReturn(request.username, vehicles, rentDates, request.time);
+            default:
+                throw new IllegalStateException("Unknown receipt kind: " + request.kind);
+        }
+    }
+
+    public long getRendered() {
+        return rendered.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Renders what is still pending, then stops the worker
+     */
+    public void shutdown() {
+        worker.shutdown();
+        try {
+            if (worker.awaitTermination(10, TimeUnit.SECONDS)) {
+                drain();
+            } else {
+                worker.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            worker.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,558 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A receipt layout, parsed once and rendered straight into bytes.
+ * <p>
+ * Templates are plain text with {@code {{field}}} placeholders, e.g.
+ * {@code Customer: {{customer}}}, and one repeated section,
+ * {@code {{#units}}...{{/units}}}, rendered once per vehicle. Inside the section a
+ * field not set on the unit falls back to the receipt's. Line breaks are written as
+ * the platform line separator. Put section tags at the start of a line and the closing
+ * tag right after the section's last line break, so they leave no blank lines.
+ * <p>
+ * Literal text is encoded once at compile time and written from read-only buffers;
+ * field values are encoded into a per-thread buffer that is reused across receipts,
+ * with numbers, money and dates formatted digit by digit. The receipt is written
+ * with one gathering write of all the pieces.
+ */
+public class ReceiptTemplate {
+
+    public enum Field {
+        RECEIPT_ID("receiptId"),
+        DATE_TIME("dateTime"),
+        CUSTOMER("customer"),
+        VEHICLE_ID("vehicleId"),
+        MODEL("model"),
+        TYPE("type"),
+        DAILY_RATE("dailyRate"),
+        RENTAL_DATE("rentalDate"),
+        RETURN_DATE("returnDate"),
+        DAYS("days"),
+        HOURS("hours"),
+        COST("cost"),
+        TOTAL("total"),
+        UNIT_COUNT("unitCount");
+
+        private static final Map<String, Field> BY_KEY = new HashMap<>();
+
+        static {
+            for (Field field : values()) {
+                BY_KEY.put(field.key, field);
+            }
+        }
+
+        private final String key;
+
+        Field(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private static final String UNITS_SECTION = "units";
+    private static final byte TEXT = 1, NUMBER = 2, MONEY = 3, DATE_TIME = 4;
+
+    // Every template's renders, for getMetrics
+    private static final AtomicLong rendered = new AtomicLong();
+    private static final AtomicLong renderNanos = new AtomicLong();
+    private static final AtomicLong writeNanos = new AtomicLong();
+    private static final ThreadLocal<Renderer> RENDERER = ThreadLocal.withInitial(Renderer::new);
+
+    private final Part[] parts;
+    // All literal text, encoded; literal parts are ranges of it
+    private final byte[] literalBytes;
+    private final ByteBuffer literals;
+    private final int literalCount;
+
+    private ReceiptTemplate(Part[] parts, byte[] literalBytes, int literalCount) {
+        this.parts = parts;
+        this.literalBytes = literalBytes;
+        ByteBuffer direct = ByteBuffer.allocateDirect(literalBytes.length);
+        direct.put(literalBytes).flip();
+        this.literals = direct.asReadOnlyBuffer();
+        this.literalCount = literalCount;
+    }
+
+    /**
+     * Compiles a template.
+     *
+     * @throws IllegalArgumentException for an unknown field or an unbalanced section
+     */
+    public static ReceiptTemplate compile(String source) {
+        String text = source.replace("\r\n", "\n");
+        List<byte[]> literalChunks = new ArrayList<>();
+        int[] literalSize = {0};
+        Deque<List<Part>> open = new ArrayDeque<>();
+        open.push(new ArrayList<>());
+
+        int pos = 0;
+        while (pos < text.length()) {
+            int tag = text.indexOf("{{", pos);
+            int literalEnd = tag < 0 ? text.length() : tag;
+            if (literalEnd > pos) {
+                byte[] bytes = text.substring(pos, literalEnd).replace("\n", System.lineSeparator())
+                        .getBytes(StandardCharsets.UTF_8);
+                open.peek().add(new Literal(literalChunks.size(), literalSize[0], bytes.length));
+                literalChunks.add(bytes);
+                literalSize[0] += bytes.length;
+            }
+            if (tag < 0) break;
+
+            int close = text.indexOf("}}", tag + 2);
+            if (close < 0) throw new IllegalArgumentException("Unclosed tag at offset " + tag);
+            String name = text.substring(tag + 2, close).trim();
+            if (name.startsWith("#")) {
+                if (!UNITS_SECTION.equals(name.substring(1).trim()) || open.size() > 1) {
+                    throw new IllegalArgumentException("Unknown section: " + name);
+                }
+                open.push(new ArrayList<>());
+            } else if (name.startsWith("/")) {
+                if (!UNITS_SECTION.equals(name.substring(1).trim()) || open.size() == 1) {
+                    throw new IllegalArgumentException("Unexpected section end: " + name);
+                }
+                List<Part> body = open.pop();
+                open.peek().add(new Section(body.toArray(new Part[0])));
+            } else {
+                Field field = Field.BY_KEY.get(name);
+                if (field == null) throw new IllegalArgumentException("Unknown receipt field: " + name);
+                open.peek().add(new Value(field));
+            }
+            pos = close + 2;
+        }
+        if (open.size() != 1) throw new IllegalArgumentException("Unclosed section: " + UNITS_SECTION);
+
+        byte[] literalBytes = new byte[literalSize[0]];
+        int offset = 0;
+        for (byte[] chunk : literalChunks) {
+            System.arraycopy(chunk, 0, literalBytes, offset, chunk.length);
+            offset += chunk.length;
+        }
+        return new ReceiptTemplate(open.pop().toArray(new Part[0]), literalBytes, literalChunks.size());
+    }
+
+    /**
+     * Compiles the template in {@code file} if there is one, so operators can change a
+     * layout without a rebuild, otherwise {@code defaultSource}
+     */
+    public static ReceiptTemplate load(Path file, String defaultSource) throws IOException {
+        if (Files.isRegularFile(file)) {
+            return compile(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+        return compile(defaultSource);
+    }
+
+    /**
+     * Renders {@code values} and writes the receipt to {@code file}, replacing it
+     */
+    public void write(Values values, Path file) throws IOException {
+        long started = System.nanoTime();
+        Renderer renderer = RENDERER.get();
+        renderer.begin(this);
+        renderer.render(parts, values, null);
+        renderer.finish();
+        long renderedAt = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            renderer.writeTo(channel);
+        }
+        rendered.incrementAndGet();
+        renderNanos.addAndGet(renderedAt - started);
+        writeNanos.addAndGet(System.nanoTime() - renderedAt);
+    }
+
+    /**
+     * Renders {@code values} to a string, e.g. for a preview of an edited layout
+     */
+    public String render(Values values) {
+        Renderer renderer = RENDERER.get();
+        renderer.begin(this);
+        renderer.render(parts, values, null);
+        renderer.finish();
+        return renderer.toText();
+    }
+
+    private interface Part {
+    }
+
+    private static final class Literal implements Part {
+        final int index;
+        final int offset;
+        final int length;
+
+        Literal(int index, int offset, int length) {
+            this.index = index;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Value implements Part {
+        final Field field;
+
+        Value(Field field) {
+            this.field = field;
+        }
+    }
+
+    private static final class Section implements Part {
+        final Part[] body;
+
+        Section(Part[] body) {
+            this.body = body;
+        }
+    }
+
+    /**
+     * Field values of one receipt. Reusable: {@link #clear()} keeps the unit slots, so
+     * a thread rendering receipts one after another allocates nothing for them.
+     */
+    public static final class Values {
+        private final Object[] objects = new Object[Field.values().length];
+        private final long[] numbers = new long[Field.values().length];
+        private final byte[] kinds = new byte[Field.values().length];
+        private Values[] units = new Values[0];
+        private int unitCount;
+
+        public Values clear() {
+            Arrays.fill(objects, null);
+            Arrays.fill(kinds, (byte) 0);
+            for (int i = 0; i < unitCount; i++) {
+                units[i].clear();
+            }
+            unitCount = 0;
+            return this;
+        }
+
+        public Values text(Field field, CharSequence value) {
+            objects[field.ordinal()] = value;
+            kinds[field.ordinal()] = TEXT;
+            return this;
+        }
+
+        public Values number(Field field, long value) {
+            numbers[field.ordinal()] = value;
+            kinds[field.ordinal()] = NUMBER;
+            return this;
+        }
+
+        /**
+         * Rendered with two decimals, rounded half up like {@code %.2f}
+         */
+        public Values money(Field field, double value) {
+            numbers[field.ordinal()] = toCents(value);
+            kinds[field.ordinal()] = MONEY;
+            return this;
+        }
+
+        // %.2f rounds the value's shortest decimal form, which can differ from rounding
+        // value * 100 only when that lands next to half a cent
+        private static long toCents(double value) {
+            double scaled = Math.abs(value) * 100;
+            double fraction = scaled - Math.floor(scaled);
+            if (Math.abs(fraction - 0.5) > Math.max(1e-6, 8 * Math.ulp(scaled))) {
+                return value < 0 ? -Math.round(scaled) : Math.round(scaled);
+            }
+            return BigDecimal.valueOf(value).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+        }
+
+        /**
+         * Rendered as yyyy-MM-dd HH:mm:ss
+         */
+        public Values dateTime(Field field, LocalDateTime value) {
+            objects[field.ordinal()] = value;
+            kinds[field.ordinal()] = DATE_TIME;
+            return this;
+        }
+
+        /**
+         * Values of the next vehicle in the units section
+         */
+        public Values addUnit() {
+            if (unitCount == units.length) {
+                units = Arrays.copyOf(units, Math.max(4, units.length * 2));
+            }
+            if (units[unitCount] == null) units[unitCount] = new Values();
+            return units[unitCount++];
+        }
+    }
+
+    /**
+     * Per-thread rendering state: the value buffer, views of it and of the literals,
+     * and the list of pieces for the gathering write
+     */
+    private static final class Renderer {
+        private ByteBuffer scratch = ByteBuffer.allocateDirect(4096);
+        private int used;
+        // Start of the values written since the last piece was cut
+        private int runStart;
+        private ByteBuffer[] pieces = new ByteBuffer[64];
+        private int pieceCount;
+        private ByteBuffer[] scratchViews = new ByteBuffer[64];
+        private int scratchViewCount;
+        private final Map<ReceiptTemplate, ByteBuffer[]> literalViews = new IdentityHashMap<>();
+        private ReceiptTemplate template;
+        private ByteBuffer[] views;
+
+        void begin(ReceiptTemplate template) {
+            this.template = template;
+            views = literalViews.computeIfAbsent(template, t -> new ByteBuffer[t.literalCount]);
+            used = 0;
+            runStart = 0;
+            pieceCount = 0;
+            scratchViewCount = 0;
+        }
+
+        void render(Part[] parts, Values values, Values parent) {
+            for (Part part : parts) {
+                if (part instanceof Literal) {
+                    Literal literal = (Literal) part;
+                    if (parent == null) {
+                        literal(literal);
+                    } else {
+                        // Repeated per unit, so copied rather than viewed
+                        ensure(literal.length);
+                        scratch.put(used, template.literalBytes, literal.offset, literal.length);
+                        used += literal.length;
+                    }
+                } else if (part instanceof Value) {
+                    value(((Value) part).field, values, parent);
+                } else {
+                    Section section = (Section) part;
+                    for (int i = 0; i < values.unitCount; i++) {
+                        render(section.body, values.units[i], values);
+                    }
+                }
+            }
+        }
+
+        // Literal text outside the units section is written from the template's own buffer
+        private void literal(Literal literal) {
+            cutRun();
+            ByteBuffer view = views[literal.index];
+            if (view == null) {
+                view = template.literals.duplicate();
+                views[literal.index] = view;
+            }
+            view.limit(literal.offset + literal.length).position(literal.offset);
+            addPiece(view);
+        }
+
+        private void value(Field field, Values values, Values parent) {
+            int i = field.ordinal();
+            if (values.kinds[i] == 0 && parent != null) values = parent;
+            switch (values.kinds[i]) {
+                case TEXT:
+                    putText((CharSequence) values.objects[i]);
+                    break;
+                case NUMBER:
+                    putLong(values.numbers[i]);
+                    break;
+                case MONEY:
+                    putMoney(values.numbers[i]);
+                    break;
+                case DATE_TIME:
+                    putDateTime((LocalDateTime) values.objects[i]);
+                    break;
+                default:
+                    // Unset fields render as nothing
+            }
+        }
+
+        private void putText(CharSequence text) {
+            ensure(text.length() * 3);
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    scratch.put(used++, (byte) c);
+                } else if (c < 0x800) {
+                    scratch.put(used++, (byte) (0xC0 | (c >> 6)));
+                    scratch.put(used++, (byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, text.charAt(++i));
+                    scratch.put(used++, (byte) (0xF0 | (cp >> 18)));
+                    scratch.put(used++, (byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    scratch.put(used++, (byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    scratch.put(used++, (byte) (0x80 | (cp & 0x3F)));
+                } else {
+                    scratch.put(used++, (byte) (0xE0 | (c >> 12)));
+                    scratch.put(used++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                    scratch.put(used++, (byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+
+        private void putLong(long value) {
+            ensure(20);
+            if (value < 0) {
+                scratch.put(used++, (byte) '-');
+                if (value == Long.MIN_VALUE) {
+                    putText("9223372036854775808");
+                    return;
+                }
+                value = -value;
+            }
+            int digits = 1;
+            for (long v = value / 10; v > 0; v /= 10) digits++;
+            for (int i = used + digits - 1; i >= used; i--) {
+                scratch.put(i, (byte) ('0' + value % 10));
+                value /= 10;
+            }
+            used += digits;
+        }
+
+        private void putMoney(long cents) {
+            if (cents < 0) {
+                ensure(1);
+                scratch.put(used++, (byte) '-');
+                cents = -cents;
+            }
+            putLong(cents / 100);
+            ensure(3);
+            scratch.put(used++, (byte) '.');
+            putDigits((int) (cents % 100), 2);
+        }
+
+        private void putDateTime(LocalDateTime time) {
+            ensure(19);
+            putDigits(time.getYear(), 4);
+            scratch.put(used++, (byte) '-');
+            putDigits(time.getMonthValue(), 2);
+            scratch.put(used++, (byte) '-');
+            putDigits(time.getDayOfMonth(), 2);
+            scratch.put(used++, (byte) ' ');
+            putDigits(time.getHour(), 2);
+            scratch.put(used++, (byte) ':');
+            putDigits(time.getMinute(), 2);
+            scratch.put(used++, (byte) ':');
+            putDigits(time.getSecond(), 2);
+        }
+
+        // Zero-padded to width; the caller has ensured the room
+        private void putDigits(int value, int width) {
+            for (int i = used + width - 1; i >= used; i--) {
+                scratch.put(i, (byte) ('0' + value % 10));
+                value /= 10;
+            }
+            used += width;
+        }
+
+        private void ensure(int bytes) {
+            if (used + bytes <= scratch.capacity()) return;
+            // Pieces already cut keep viewing the old buffer, which stays valid for this render
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(scratch.capacity() * 2, used + bytes));
+            ByteBuffer old = scratch.duplicate();
+            old.limit(used).position(runStart);
+            grown.put(runStart, old, runStart, used - runStart);
+            scratch = grown;
+            Arrays.fill(scratchViews, null);
+        }
+
+        // Turns the values written since the last piece into a piece
+        private void cutRun() {
+            if (used == runStart) return;
+            if (scratchViewCount == scratchViews.length) {
+                scratchViews = Arrays.copyOf(scratchViews, scratchViews.length * 2);
+            }
+            ByteBuffer view = scratchViews[scratchViewCount];
+            if (view == null) {
+                view = scratch.duplicate();
+                scratchViews[scratchViewCount] = view;
+            }
+            scratchViewCount++;
+            view.limit(used).position(runStart);
+            addPiece(view);
+            runStart = used;
+        }
+
+        private void addPiece(ByteBuffer piece) {
+            if (pieceCount == pieces.length) pieces = Arrays.copyOf(pieces, pieces.length * 2);
+            pieces[pieceCount++] = piece;
+        }
+
+        void finish() {
+            cutRun();
+        }
+
+        void writeTo(FileChannel channel) throws IOException {
+            int first = 0;
+            while (first < pieceCount) {
+                channel.write(pieces, first, pieceCount - first);
+                while (first < pieceCount && !pieces[first].hasRemaining()) first++;
+            }
+        }
+
+        String toText() {
+            int size = 0;
+            for (int i = 0; i < pieceCount; i++) size += pieces[i].remaining();
+            byte[] bytes = new byte[size];
+            int offset = 0;
+            for (int i = 0; i < pieceCount; i++) {
+                int length = pieces[i].remaining();
+                pieces[i].get(bytes, offset, length);
+                offset += length;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    public static Metrics getMetrics() {
+        return new Metrics(rendered.get(), renderNanos.get(), writeNanos.get());
+    }
+
+    /**
+     * Receipts written by every template since startup
+     */
+    public static final class Metrics {
+        private final long receipts;
+        private final long renderNanos;
+        private final long writeNanos;
+
+        Metrics(long receipts, long renderNanos, long writeNanos) {
+            this.receipts = receipts;
+            this.renderNanos = renderNanos;
+            this.writeNanos = writeNanos;
+        }
+
+        public long getReceipts() { return receipts; }
+
+        /**
+         * Rendering throughput, not counting file creation and writing
+         */
+        public double getRendersPerSecond() {
+            return renderNanos == 0 ? 0 : receipts * 1e9 / renderNanos;
+        }
+
+        public double getAverageWriteMicros() {
+            return receipts == 0 ? 0 : writeNanos / 1000.0 / receipts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d receipts, %.0f renders/s, %.1f us/write",
+                    receipts, getRendersPerSecond(), getAverageWriteMicros());
+        }
+    }
+}
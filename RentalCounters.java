@@ -0,0 +1,98 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals behind {@link RentalManager#getRentalStatistics()}: open rentals and
+ * revenue, kept current by the write paths so the statistics never scan rental_records.
+ * <p>
+ * Reads are plain atomic loads. Writers commit through {@link #commit} so that
+ * {@link #reconcile} can tell whether a change was in flight while the database was
+ * being counted; if one was, the reconciliation is skipped rather than risk counting
+ * the change twice or not at all.
+ */
+public class RentalCounters {
+    private final AtomicInteger activeRentals = new AtomicInteger();
+    // Whole cents, so repeated additions don't drift the way doubles do
+    private final AtomicLong revenueCents = new AtomicLong();
+    // Commits that have started but not yet updated the counters
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong corrections = new AtomicLong();
+
+    public interface Update {
+        void apply(RentalCounters counters);
+    }
+
+    /**
+     * Commits the connection and then applies {@code update} to the counters
+     */
+    public void commit(Connection conn, Update update) throws SQLException {
+        pending.incrementAndGet();
+        try {
+            conn.commit();
+            synchronized (this) {
+                update.apply(this);
+                version.incrementAndGet();
+            }
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    // Only called from an Update, under the monitor
+    void rentalsOpened(int count) {
+        activeRentals.addAndGet(count);
+    }
+
+    void rentalsClosed(int count) {
+        activeRentals.addAndGet(-count);
+    }
+
+    void revenueChanged(double delta) {
+        revenueCents.addAndGet(Math.round(delta * 100));
+    }
+
+    public int getActiveRentals() {
+        return activeRentals.get();
+    }
+
+    public double getTotalRevenue() {
+        return revenueCents.get() / 100.0;
+    }
+
+    /**
+     * Starts a reconciliation: returns a token to pass to {@link #reconcile}, or -1 if a
+     * commit is in flight and the database can't be counted consistently right now
+     */
+    public long beginReconcile() {
+        long token = version.get();
+        return pending.get() == 0 ? token : -1;
+    }
+
+    /**
+     * Replaces the counters with totals counted from the database since
+     * {@link #beginReconcile}, unless a commit started in the meantime.
+     *
+     * @return whether the counters were replaced
+     */
+    public synchronized boolean reconcile(long token, int countedActive, double countedRevenue) {
+        if (token < 0 || pending.get() != 0 || version.get() != token) return false;
+        long cents = Math.round(countedRevenue * 100);
+        if (activeRentals.get() != countedActive || revenueCents.get() != cents) {
+            corrections.incrementAndGet();
+        }
+        activeRentals.set(countedActive);
+        revenueCents.set(cents);
+        return true;
+    }
+
+    /**
+     * Reconciliations that found the counters had drifted from the database, e.g. after
+     * another process changed rental_records
+     */
+    public long getCorrections() {
+        return corrections.get();
+    }
+}
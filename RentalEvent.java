@@ -0,0 +1,162 @@
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable facts about the fleet, shared by the {@link RentalJournal} of the in-memory
+ * store and the {@link RentalLedger} of the database store.
+ * <p>
+ * An event is an array of string fields whose first field is its type. Events are
+ * never updated: a return does not rewrite the rental, it is a later event naming it.
+ * {@link RentalProjection} folds a sequence of events into current state.
+ */
+public final class RentalEvent {
+    public static final String VEHICLE_ADDED = "A";
+    /** Model, type and price; every price change is one of these */
+    public static final String VEHICLE_UPDATED = "U";
+    public static final String QUANTITY_CHANGED = "Q";
+    public static final String VEHICLE_REMOVED = "D";
+    public static final String RENTED = "R";
+    public static final String RETURNED = "T";
+    public static final String COST_RECORDED = "C";
+    // Snapshot only: a rental restored as-is, without touching vehicle availability
+    public static final String RENTAL_RESTORED = "H";
+    public static final String NEXT_IDS = "N";
+
+    private RentalEvent() {
+    }
+
+    /**
+     * A vehicle as it is now; also how vehicles are written to snapshots
+     */
+    public static String[] vehicleAdded(Vehicle v) {
+        return new String[]{VEHICLE_ADDED, Integer.toString(v.getId()), v.getModel(), v.getType(),
+                Double.toString(v.getRentPerDay()), Integer.toString(v.getQuantity()),
+                Integer.toString(v.getAvailableQuantity())};
+    }
+
+    public static String[] vehicleUpdated(int id, String model, String type, double rentPerDay) {
+        return new String[]{VEHICLE_UPDATED, Integer.toString(id), model, type, Double.toString(rentPerDay)};
+    }
+
+    public static String[] quantityChanged(int id, int quantity, int availableQuantity) {
+        return new String[]{QUANTITY_CHANGED, Integer.toString(id), Integer.toString(quantity),
+                Integer.toString(availableQuantity)};
+    }
+
+    public static String[] vehicleRemoved(int id) {
+        return new String[]{VEHICLE_REMOVED, Integer.toString(id)};
+    }
+
+    public static String[] rented(int rentalId, int vehicleId, String username, LocalDateTime rentDate) {
+        return new String[]{RENTED, Integer.toString(rentalId), Integer.toString(vehicleId), username,
+                encodeTime(rentDate)};
+    }
+
+    public static String[] returned(int rentalId, LocalDateTime returnDate) {
+        return new String[]{RETURNED, Integer.toString(rentalId), encodeTime(returnDate)};
+    }
+
+    public static String[] costRecorded(int rentalId, double totalCost) {
+        return new String[]{COST_RECORDED, Integer.toString(rentalId), Double.toString(totalCost)};
+    }
+
+    public static String[] rentalRestored(int rentalId, int vehicleId, String username, LocalDateTime rentDate,
+                                          LocalDateTime returnDate, double totalCost) {
+        return new String[]{RENTAL_RESTORED, Integer.toString(rentalId), Integer.toString(vehicleId), username,
+                encodeTime(rentDate), returnDate == null ? "" : encodeTime(returnDate),
+                Double.toString(totalCost)};
+    }
+
+    public static String[] nextIds(int nextVehicleId, int nextRentalId) {
+        return new String[]{NEXT_IDS, Integer.toString(nextVehicleId), Integer.toString(nextRentalId)};
+    }
+
+    static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    // Epoch milliseconds, then the nanoseconds within the millisecond if there are any, so
+    // an event keeps the precision of rent_date and older millisecond values still decode
+    static String encodeTime(LocalDateTime time) {
+        Instant instant = time.atZone(ZoneId.systemDefault()).toInstant();
+        int nanos = instant.getNano() % 1_000_000;
+        String millis = Long.toString(instant.toEpochMilli());
+        return nanos == 0 ? millis : millis + "." + String.format("%06d", nanos);
+    }
+
+    static LocalDateTime toDateTime(String time) {
+        int dot = time.indexOf('.');
+        if (dot < 0) return toDateTime(Long.parseLong(time));
+        Instant instant = Instant.ofEpochMilli(Long.parseLong(time.substring(0, dot)))
+                .plusNanos(Integer.parseInt(time.substring(dot + 1)));
+        return LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+    }
+
+    static LocalDateTime toDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    static Timestamp toTimestamp(String time) {
+        return Timestamp.valueOf(toDateTime(time));
+    }
+
+    /**
+     * One line, newline-terminated. Tabs, newlines and backslashes inside a field are
+     * escaped so one line is always one event.
+     */
+    static String encode(String[] fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append('\t');
+            String field = fields[i];
+            for (int j = 0; j < field.length(); j++) {
+                char c = field.charAt(j);
+                switch (c) {
+                    case '\\': sb.append("\\\\"); break;
+                    case '\t': sb.append("\\t"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    default: sb.append(c);
+                }
+            }
+        }
+        return sb.append('\n').toString();
+    }
+
+    static String[] decode(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                field.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    /**
+     * Decodes every complete line of {@code text}; anything after the last newline is ignored
+     */
+    static List<String[]> decodeLines(String text) {
+        List<String[]> lines = new ArrayList<>();
+        int start = 0;
+        int newline;
+        while ((newline = text.indexOf('\n', start)) >= 0) {
+            if (newline > start) lines.add(decode(text.substring(start, newline)));
+            start = newline + 1;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Append-only journal plus snapshot for {@link InMemoryRentalStore}.
+ * <p>
+ * Each entry is one encoded {@link RentalEvent} prefixed with a sequence number.
+ * A snapshot records the sequence number it covers, so entries still in the journal
+ * after a crash between writing the snapshot and dropping the old entries are skipped
+ * on recovery rather than applied twice. A torn last line is discarded.
+ * <p>
+ * A snapshot first rotates the journal aside, so it can be written while new entries
+ * go to a fresh journal; the rotated one is deleted once the snapshot is in place.
+ * <p>
+ * Not thread-safe; the store serializes all calls, except that one
+ * {@link #writeSnapshot} may run alongside them.
+ */
+public class RentalJournal implements Closeable {
+    private static final String JOURNAL_FILE = "rental.journal";
+    private static final String ROTATED_FILE = "rental.journal.old";
+    private static final String SNAPSHOT_FILE = "rental.snapshot";
+    private static final String SNAPSHOT_HEADER = "SNAPSHOT";
+
+    private final Path journalPath;
+    private final Path rotatedPath;
+    private final Path snapshotPath;
+    // Force every entry to disk, not only to the OS page cache
+    private final boolean fsync;
+    private FileChannel channel;
+    private long lastSequence;
+    private long entriesSinceSnapshot;
+
+    public RentalJournal(Path directory, boolean fsync) throws IOException {
+        Files.createDirectories(directory);
+        this.journalPath = directory.resolve(JOURNAL_FILE);
+        this.rotatedPath = directory.resolve(ROTATED_FILE);
+        this.snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        this.fsync = fsync;
+    }
+
+    /**
+     * Feeds the snapshot and then the newer journal entries to {@code apply}, and opens
+     * the journal for appending. Must be called once before {@link #append}.
+     *
+     * @return the number of entries replayed, 0 for a brand new store
+     */
+    public long recover(Consumer<String[]> apply) throws IOException {
+        long replayed = 0;
+        long snapshotSequence = 0;
+        if (Files.exists(snapshotPath)) {
+            List<String[]> lines = readLines(Files.readAllBytes(snapshotPath));
+            if (lines.isEmpty() || !SNAPSHOT_HEADER.equals(lines.get(0)[0])) {
+                throw new IOException("Corrupt snapshot " + snapshotPath);
+            }
+            snapshotSequence = Long.parseLong(lines.get(0)[1]);
+            for (String[] fields : lines.subList(1, lines.size())) {
+                apply.accept(fields);
+                replayed++;
+            }
+        }
+        lastSequence = snapshotSequence;
+
+        if (Files.exists(rotatedPath)) {
+            try (FileChannel rotated = FileChannel.open(rotatedPath, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                replayed += replay(rotated, rotatedPath, apply);
+            }
+        }
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        replayed += replay(channel, journalPath, apply);
+        channel.position(channel.size());
+        return replayed;
+    }
+
+    // Applies the entries newer than lastSequence; a crash while rotating can leave some in both files
+    private long replay(FileChannel file, Path path, Consumer<String[]> apply) throws IOException {
+        long replayed = 0;
+        byte[] content = Files.readAllBytes(path);
+        int end = content.length;
+        while (end > 0 && content[end - 1] != '\n') end--;
+        if (end < content.length) {
+            // The process died mid-write; the entry never completed so it never happened
+            file.truncate(end);
+        }
+        for (String[] fields : readLines(Arrays.copyOf(content, end))) {
+            long sequence = Long.parseLong(fields[0]);
+            if (sequence <= lastSequence) continue;
+            String[] entry = Arrays.copyOfRange(fields, 1, fields.length);
+            apply.accept(entry);
+            lastSequence = sequence;
+            entriesSinceSnapshot++;
+            replayed++;
+        }
+        return replayed;
+    }
+
+    /**
+     * Durably records one entry; the change it describes may be applied once this returns
+     */
+    public void append(String... fields) throws IOException {
+        String[] line = new String[fields.length + 1];
+        line[0] = Long.toString(lastSequence + 1);
+        System.arraycopy(fields, 0, line, 1, fields.length);
+        ByteBuffer buffer = ByteBuffer.wrap(RentalEvent.encode(line).getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (fsync) channel.force(false);
+        lastSequence++;
+        entriesSinceSnapshot++;
+    }
+
+    public long getEntriesSinceSnapshot() {
+        return entriesSinceSnapshot;
+    }
+
+    /**
+     * Replaces the snapshot with {@code state}, which must reflect every entry appended
+     * so far, then empties the journal.
+     */
+    public void snapshot(List<String[]> state) throws IOException {
+        writeSnapshot(rotate(), state);
+    }
+
+    /**
+     * Moves the entries appended so far aside and starts a fresh journal. The state to
+     * snapshot must be taken before the next {@link #append}.
+     *
+     * @return the sequence number the snapshot will cover
+     */
+    public long rotate() throws IOException {
+        channel.force(true);
+        channel.close();
+        try {
+            if (Files.exists(rotatedPath)) {
+                // The last snapshot was never written, so the older entries are still needed
+                try (FileChannel rotated = FileChannel.open(rotatedPath, StandardOpenOption.APPEND);
+                     FileChannel current = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < current.size()) {
+                        position += current.transferTo(position, current.size() - position, rotated);
+                    }
+                    rotated.force(true);
+                }
+                Files.delete(journalPath);
+            } else {
+                Files.move(journalPath, rotatedPath, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            // Appends carry on whether or not the entries made it aside
+            channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+        entriesSinceSnapshot = 0;
+        return lastSequence;
+    }
+
+    /**
+     * Replaces the snapshot with {@code state} as of {@code sequence}, the value returned
+     * by the last {@link #rotate}, then deletes the rotated journal
+     */
+    public void writeSnapshot(long sequence, List<String[]> state) throws IOException {
+        Path temp = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder sb = new StringBuilder(RentalEvent.encode(new String[]{SNAPSHOT_HEADER, Long.toString(sequence)}));
+            for (String[] fields : state) {
+                sb.append(RentalEvent.encode(fields));
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(rotatedPath);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    private static List<String[]> readLines(byte[] content) {
+        return RentalEvent.decodeLines(new String(content, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,325 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Append-only ledger of every change {@link RentalManager} makes, kept in the
+ * {@code rental_events} table.
+ * <p>
+ * Each {@link RentalEvent} is inserted on the same connection and in the same
+ * transaction as the change it records, so the ledger and the tables commit or roll
+ * back together. Events are never updated; returns and costs are later events rather
+ * than overwrites, so the full history of a rental or a vehicle's quantity and price
+ * survives. Current state is recovered by replaying the latest snapshot from
+ * {@code ledger_snapshots} plus the events after it into a {@link RentalProjection}
+ * or any other read model.
+ * <p>
+ * A snapshot is written in the background once {@code rental.ledger.snapshotEvery}
+ * events (default 10000) have accumulated. Sequence numbers are assigned at insert
+ * but become visible at commit, so a later sequence number can commit before an
+ * earlier one. A snapshot covers events up to the highest sequence number committed
+ * when it starts. If any number below it is not visible yet, the snapshot first waits
+ * {@code rental.ledger.settleMs} (default 10000), far longer than the single-operation
+ * transactions that append events stay open, so every missing number has by then
+ * either committed or been rolled back. Nothing is locked, so appends never wait.
+ */
+public class RentalLedger {
+    private static final int SNAPSHOT_EVERY = Integer.getInteger("rental.ledger.snapshotEvery", 10_000);
+    private static final long CHECK_INTERVAL_SECONDS = 60;
+    private static final long SETTLE_MILLIS = Long.getLong("rental.ledger.settleMs", 10_000);
+    // Events handed to read models per round; also the JDBC fetch size while replaying
+    private static final int CHUNK_SIZE = 1000;
+
+    private final DatabaseManager dbManager;
+    private final ScheduledExecutorService snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rental-ledger-snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RentalLedger(DatabaseManager dbManager) {
+        this.dbManager = dbManager;
+    }
+
+    /**
+     * Writes the baseline snapshot on first use and starts background snapshots.
+     * Rentals and vehicles that predate the ledger enter it through the baseline.
+     */
+    public void initialize() throws SQLException {
+        try (Connection conn = dbManager.getConnection()) {
+            boolean empty;
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM ledger_snapshots");
+                 ResultSet rs = stmt.executeQuery()) {
+                empty = rs.next() && rs.getInt(1) == 0;
+            }
+            if (empty) {
+                writeSnapshot(conn, 0, baseline(conn));
+            }
+        }
+        snapshotter.scheduleWithFixedDelay(this::snapshotIfDue,
+                CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Current tables as snapshot events
+    private static List<String[]> baseline(Connection conn) throws SQLException {
+        RentalProjection projection = new RentalProjection();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT id, model, type, rent_per_day, quantity, available_quantity FROM vehicles ORDER BY id");
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                projection.accept(RentalEvent.vehicleAdded(new Vehicle(rs.getInt("id"), rs.getString("model"),
+                        rs.getString("type"), rs.getDouble("rent_per_day"),
+                        rs.getInt("quantity"), rs.getInt("available_quantity"))));
+            }
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT id, vehicle_id, username, rent_date, return_date, total_cost FROM rental_records ORDER BY id");
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                Timestamp returnDate = rs.getTimestamp("return_date");
+                projection.accept(RentalEvent.rentalRestored(rs.getInt("id"), rs.getInt("vehicle_id"),
+                        rs.getString("username"), rs.getTimestamp("rent_date").toLocalDateTime(),
+                        returnDate == null ? null : returnDate.toLocalDateTime(), rs.getDouble("total_cost")));
+            }
+        }
+        return projection.snapshot();
+    }
+
+    /**
+     * Records an event as part of the caller's transaction
+     *
+     * @param vehicleId the vehicle the event is about, for {@link #getVehicleHistory}
+     */
+    public void append(Connection conn, int vehicleId, String[] event) throws SQLException {
+        appendAll(conn, List.of(vehicleId), Collections.singletonList(event));
+    }
+
+    /**
+     * Records several events, in order, as part of the caller's transaction
+     */
+    public void appendAll(Connection conn, List<Integer> vehicleIds, List<String[]> events) throws SQLException {
+        if (events.isEmpty()) return;
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO rental_events (event_type, vehicle_id, event, recorded_at) VALUES (?, ?, ?, ?)")) {
+            for (int i = 0; i < events.size(); i++) {
+                String[] event = events.get(i);
+                stmt.setString(1, event[0]);
+                stmt.setInt(2, vehicleIds.get(i));
+                stmt.setString(3, encode(event));
+                stmt.setTimestamp(4, now);
+                if (events.size() == 1) {
+                    stmt.executeUpdate();
+                } else {
+                    stmt.addBatch();
+                }
+            }
+            if (events.size() > 1) stmt.executeBatch();
+        }
+    }
+
+    /**
+     * Replays the latest snapshot and every later event into a new projection
+     */
+    public RentalProjection project() throws SQLException {
+        RentalProjection projection = new RentalProjection();
+        replay(List.of(projection));
+        return projection;
+    }
+
+    /**
+     * Feeds the latest snapshot and every later event to each read model. The log is
+     * read once; each chunk of events is applied to the models in parallel, and every
+     * model sees every event in ledger order.
+     *
+     * @return sequence number of the last event replayed
+     */
+    public long replay(Collection<? extends Consumer<String[]>> readModels) throws SQLException {
+        return replay(readModels, Long.MAX_VALUE);
+    }
+
+    private long replay(Collection<? extends Consumer<String[]>> readModels, long untilSeq) throws SQLException {
+        try (Connection conn = dbManager.getConnection()) {
+            long lastSeq = 0;
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT seq, state FROM ledger_snapshots ORDER BY seq DESC LIMIT 1");
+                 ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    lastSeq = rs.getLong("seq");
+                    dispatch(RentalEvent.decodeLines(rs.getString("state")), readModels);
+                }
+            }
+
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT seq, event FROM rental_events WHERE seq > ? AND seq <= ? ORDER BY seq",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setFetchSize(CHUNK_SIZE);
+                stmt.setLong(1, lastSeq);
+                stmt.setLong(2, untilSeq);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    List<String[]> chunk = new ArrayList<>(CHUNK_SIZE);
+                    while (rs.next()) {
+                        lastSeq = rs.getLong("seq");
+                        chunk.add(RentalEvent.decode(rs.getString("event")));
+                        if (chunk.size() == CHUNK_SIZE) {
+                            dispatch(chunk, readModels);
+                            chunk = new ArrayList<>(CHUNK_SIZE);
+                        }
+                    }
+                    dispatch(chunk, readModels);
+                }
+            }
+            return lastSeq;
+        }
+    }
+
+    private static void dispatch(List<String[]> events, Collection<? extends Consumer<String[]>> readModels) {
+        if (events.isEmpty()) return;
+        if (readModels.size() == 1) {
+            events.forEach(readModels.iterator().next());
+        } else {
+            readModels.parallelStream().forEach(events::forEach);
+        }
+    }
+
+    /**
+     * Writes a snapshot of every committed event so later replays start from it
+     *
+     * @return sequence number the snapshot covers
+     */
+    public synchronized long snapshot() throws SQLException {
+        long latest;
+        try (Connection conn = dbManager.getConnection()) {
+            latest = getLatestSnapshotSequence(conn);
+        }
+        long committed = committedTail(latest);
+        if (committed <= latest) return latest;
+
+        RentalProjection projection = new RentalProjection();
+        long covered = replay(List.of(projection), committed);
+        try (Connection conn = dbManager.getConnection()) {
+            writeSnapshot(conn, covered, projection.snapshot());
+        }
+        return covered;
+    }
+
+    // Highest committed sequence number after the given one, once every event up to it has
+    // committed. Gaps are either open transactions or rollbacks; after the settle delay
+    // the open ones have finished, and a rollback's number never reappears.
+    private long committedTail(long after) throws SQLException {
+        long tail;
+        long visible;
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT MAX(seq), COUNT(*) FROM rental_events WHERE seq > ?")) {
+            stmt.setLong(1, after);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                tail = Math.max(after, rs.getLong(1));
+                visible = rs.getLong(2);
+            }
+        }
+        if (visible < tail - after) {
+            try {
+                Thread.sleep(SETTLE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted waiting for ledger appends to settle", e);
+            }
+        }
+        return tail;
+    }
+
+    private void snapshotIfDue() {
+        try {
+            boolean due;
+            try (Connection conn = dbManager.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM rental_events WHERE seq > ?")) {
+                stmt.setLong(1, getLatestSnapshotSequence(conn));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    due = rs.next() && rs.getLong(1) >= SNAPSHOT_EVERY;
+                }
+            }
+            if (due) snapshot();
+        } catch (SQLException e) {
+            // The ledger is complete without snapshots; try again at the next check
+            e.printStackTrace();
+        }
+    }
+
+    private static long getLatestSnapshotSequence(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT MAX(seq) FROM ledger_snapshots");
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // Keeps the new snapshot and the one before it
+    private static void writeSnapshot(Connection conn, long seq, List<String[]> state) throws SQLException {
+        StringBuilder sb = new StringBuilder();
+        for (String[] fields : state) {
+            sb.append(RentalEvent.encode(fields));
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            long previous = getLatestSnapshotSequence(conn);
+            try (PreparedStatement insert = conn.prepareStatement(
+                    "INSERT INTO ledger_snapshots (seq, state, taken_at) VALUES (?, ?, ?)")) {
+                insert.setLong(1, seq);
+                insert.setString(2, sb.toString());
+                insert.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+                insert.executeUpdate();
+            }
+            try (PreparedStatement prune = conn.prepareStatement("DELETE FROM ledger_snapshots WHERE seq < ?")) {
+                prune.setLong(1, Math.min(previous, seq));
+                prune.executeUpdate();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Every event about one vehicle since the ledger began, oldest first, e.g. all of
+     * its quantity and price changes
+     */
+    public List<String[]> getVehicleHistory(int vehicleId) throws SQLException {
+        List<String[]> history = new ArrayList<>();
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT event FROM rental_events WHERE vehicle_id = ? ORDER BY seq")) {
+            stmt.setInt(1, vehicleId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    history.add(RentalEvent.decode(rs.getString("event")));
+                }
+            }
+        }
+        return history;
+    }
+
+    public void shutdown() {
+        snapshotter.shutdownNow();
+    }
+
+    private static String encode(String[] event) {
+        String line = RentalEvent.encode(event);
+        return line.substring(0, line.length() - 1);
+    }
+}
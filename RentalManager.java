@@ -1,80 +1,232 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.*;
 import javax.swing.JOptionPane;
 import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Data model for the rental system using JDBC
  */
-public class RentalManager {
+public class RentalManager implements RentalStore {
+    // Power of two so a vehicle id maps to its stripe with a mask
+    private static final int LOCK_STRIPES = 64;
+    private static final int MAX_OPTIMISTIC_ATTEMPTS = 3;
+    private static final int STREAM_FETCH_SIZE = Integer.getInteger("rental.db.streamFetchSize", 1000);
+    private static final int STATS_RECONCILE_SECONDS = Integer.getInteger("rental.stats.reconcileSeconds", 300);
+
+    // Every statement that reads or changes existing rows, shared with QueryPlanCheck so it
+    // explains exactly what runs here
+    static final String OPEN_RENTAL_QUERY = "SELECT id, username, rent_date FROM rental_records " +
+            "WHERE vehicle_id = ? AND return_date IS NULL ORDER BY rent_date DESC LIMIT 1";
+    static final String RENTED_BY_USER_QUERY =
+            "SELECT COUNT(*) FROM rental_records WHERE vehicle_id = ? AND username = ? AND return_date IS NULL";
+    static final String USER_HISTORY_QUERY = "SELECT r.*, v.model, v.type FROM rental_records r " +
+            "JOIN vehicles v ON r.vehicle_id = v.id " +
+            "WHERE r.username = ? ORDER BY r.rent_date DESC";
+    // Only columns in idx_rental_active_date, so the rental side is read from the index alone
+    static final String ACTIVE_RENTALS_QUERY = "SELECT r.id, r.vehicle_id, r.username, r.rent_date, v.model, v.type " +
+            "FROM rental_records r " +
+            "JOIN vehicles v ON r.vehicle_id = v.id " +
+            "WHERE r.return_date IS NULL ORDER BY r.rent_date ASC";
+    static final String USER_HISTORY_FILTER = "r.username = ?";
+    static final String ACTIVE_RENTALS_FILTER = "r.return_date IS NULL";
+    static final String OPEN_RENTALS_QUERY = "SELECT id, username, rent_date FROM rental_records " +
+            "WHERE vehicle_id = ? AND return_date IS NULL ORDER BY rent_date DESC LIMIT ?";
+    static final String OPEN_RENTAL_COUNT_QUERY =
+            "SELECT COUNT(*) FROM rental_records WHERE vehicle_id = ? AND return_date IS NULL";
+    static final String OPEN_RENT_DATE_QUERY =
+            "SELECT rent_date FROM rental_records WHERE vehicle_id = ? AND return_date IS NULL";
+    static final String LAST_RENT_DATE_QUERY =
+            "SELECT rent_date FROM rental_records WHERE vehicle_id = ? ORDER BY return_date DESC LIMIT 1";
+    static final String LAST_RETURNED_QUERY = "SELECT id, total_cost FROM rental_records " +
+            "WHERE vehicle_id = ? AND return_date IS NOT NULL ORDER BY return_date DESC LIMIT 1";
+    static final String ACTIVE_COUNT_QUERY = "SELECT COUNT(*) FROM rental_records WHERE return_date IS NULL";
+    static final String REVENUE_QUERY = "SELECT SUM(total_cost) FROM rental_records WHERE return_date IS NOT NULL";
+    static final String CLOSE_RENTAL_UPDATE = "UPDATE rental_records SET return_date = ? WHERE id = ?";
+    static final String CLOSE_OPEN_RENTAL_UPDATE =
+            "UPDATE rental_records SET return_date = ? WHERE id = ? AND return_date IS NULL";
+    static final String COST_UPDATE = "UPDATE rental_records SET total_cost = ? WHERE id = ?";
+    static final String VEHICLE_QUERY = "SELECT * FROM vehicles WHERE id = ?";
+    static final String VEHICLE_QUANTITY_QUERY = "SELECT quantity, available_quantity FROM vehicles WHERE id = ?";
+    static final String LOCK_VEHICLE_QUERY = "SELECT available_quantity FROM vehicles WHERE id = ? FOR UPDATE";
+    static final String LOCK_VEHICLE_QUANTITY_QUERY =
+            "SELECT quantity, available_quantity FROM vehicles WHERE id = ? FOR UPDATE";
+    static final String RECEIPT_VEHICLE_QUERY = "SELECT model, type, rent_per_day FROM vehicles WHERE id = ?";
+    static final String SET_QUANTITY_UPDATE =
+            "UPDATE vehicles SET quantity = ?, available_quantity = ?, is_available = ? WHERE id = ?";
+    static final String TAKE_UNIT_UPDATE = "UPDATE vehicles SET available_quantity = available_quantity - 1, " +
+            "is_available = CASE WHEN available_quantity - 1 > 0 THEN 1 ELSE 0 END WHERE id = ?";
+    static final String CLAIM_UNIT_UPDATE = "UPDATE vehicles SET available_quantity = available_quantity - 1, " +
+            "is_available = CASE WHEN available_quantity - 1 > 0 THEN 1 ELSE 0 END " +
+            "WHERE id = ? AND available_quantity > 0";
+    static final String RELEASE_UNIT_UPDATE =
+            "UPDATE vehicles SET available_quantity = available_quantity + 1, is_available = 1 WHERE id = ?";
+    static final String RETURN_UNIT_UPDATE = "UPDATE vehicles SET available_quantity = available_quantity + 1, " +
+            "is_available = 1 WHERE id = ? AND available_quantity < quantity";
+    static final String VEHICLE_DETAILS_UPDATE = "UPDATE vehicles SET model = ?, type = ?, rent_per_day = ? WHERE id = ?";
+    static final String DELETE_VEHICLE_UPDATE = "DELETE FROM vehicles WHERE id = ?";
+    // Whole-table reads by design
+    static final String FLEET_QUERY = "SELECT id, model, type, rent_per_day, is_available, quantity, " +
+            "available_quantity FROM vehicles ORDER BY id";
+    static final String AVAILABLE_FLEET_QUERY = "SELECT id, model, type, rent_per_day, is_available, quantity, " +
+            "available_quantity FROM vehicles WHERE available_quantity > 0 ORDER BY id";
+    static final String FLEET_COUNT_QUERY = "SELECT COUNT(*) FROM vehicles";
+    static final String AVAILABLE_COUNT_QUERY = "SELECT COUNT(*) FROM vehicles WHERE is_available = true";
+    // Left join so rentals of removed vehicles are part of the scan
+    static final String ALL_RENTALS_QUERY = "SELECT r.id, r.vehicle_id, r.username, r.rent_date, r.return_date, " +
+            "r.total_cost, v.model, v.type FROM rental_records r LEFT JOIN vehicles v ON r.vehicle_id = v.id ORDER BY r.id";
+
     private final DatabaseManager dbManager;
     private final FileManager fileManager;
+    // Serializes mutations of the same vehicle; reads and different vehicles run in parallel
+    private final Lock[] vehicleLocks = new Lock[LOCK_STRIPES];
+    // Authoritative copy of the vehicles table; every write below updates it after committing
+    private final InventoryCache inventory = new InventoryCache();
+    // Every change below is also recorded here, in the same transaction
+    private final RentalLedger ledger;
+    // Receipts are requested in each transaction and rendered after commit
+    private final ReceiptOutbox receipts;
+    // Open rentals and revenue for getRentalStatistics; vehicle totals come from the inventory
+    private final RentalCounters counters = new RentalCounters();
+    private volatile boolean countersReconciled;
+    private final ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rental-stats-reconcile");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile ConcurrencyMode concurrencyMode = ConcurrencyMode.valueOf(
+            System.getProperty("rental.concurrencyMode", ConcurrencyMode.PESSIMISTIC.name()).toUpperCase());
+    private final AtomicLong optimisticConflicts = new AtomicLong();
+    private final AtomicLong rentalTransactions = new AtomicLong();
+    private final AtomicLong rentalTransactionNanos = new AtomicLong();
 
     public RentalManager() {
-        dbManager = new DatabaseManager();
+        this(new DatabaseManager());
+    }
+
+    public RentalManager(DatabaseManager dbManager) {
+        this.dbManager = dbManager;
         fileManager = FileManager.getInstance();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            vehicleLocks[i] = new ReentrantLock();
+        }
+        ledger = new RentalLedger(dbManager);
+        try {
+            ledger.initialize();
+        } catch (SQLException e) {
+            showError("Error initializing rental ledger", e);
+        }
+        reloadInventory();
+        receipts = new ReceiptOutbox(dbManager, fileManager);
+        receipts.start();
+        reconcileStatistics();
+        reconciler.scheduleWithFixedDelay(this::reconcileStatistics,
+                STATS_RECONCILE_SECONDS, STATS_RECONCILE_SECONDS, TimeUnit.SECONDS);
     }
 
-    public synchronized List<Vehicle> getAllVehicles() {
-        List<Vehicle> vehicles = new ArrayList<>();
-        try (Connection conn = dbManager.getConnection();
-             Statement stmt = conn.createStatement()) {
-            boolean hasQuantityColumns = false;
-            try (ResultSet columns = conn.getMetaData().getColumns(null, null, "vehicles", "quantity")) {
-                hasQuantityColumns = columns.next();
-            }
+    private Lock lockFor(int vehicleId) {
+        return vehicleLocks[stripeOf(vehicleId)];
+    }
+
+    private static int stripeOf(int vehicleId) {
+        // Spread consecutive ids so neighbouring vehicles don't share a stripe pattern
+        int h = vehicleId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
 
-            String query = hasQuantityColumns ?
-                    "SELECT id, model, type, rent_per_day, is_available, quantity, available_quantity FROM vehicles" :
-                    "SELECT id, model, type, rent_per_day, is_available FROM vehicles";
+    /**
+     * Reloads the in-memory inventory from the vehicles table. Until a load succeeds,
+     * vehicle reads fall back to querying the database.
+     */
+    public void reloadInventory() {
+        try {
+            inventory.loadAll(loadVehicles(FLEET_QUERY));
+        } catch (SQLException e) {
+            showError("Error loading vehicle inventory", e);
+        }
+    }
 
-            try (ResultSet rs = stmt.executeQuery(query)) {
-                while (rs.next()) {
-                    int id = rs.getInt("id");
-                    String model = rs.getString("model");
-                    String type = rs.getString("type");
-                    double rentPerDay = rs.getDouble("rent_per_day");
-                    boolean isAvailable = rs.getBoolean("is_available");
+    public InventoryCache getInventory() {
+        return inventory;
+    }
 
-                    vehicles.add(hasQuantityColumns ?
-                            new Vehicle(id, model, type, rentPerDay, isAvailable,
-                                    rs.getInt("quantity"), rs.getInt("available_quantity")) :
-                            new Vehicle(id, model, type, rentPerDay, isAvailable));
-                }
-            }
+    /**
+     * The event history behind the tables; replay it to rebuild read models off the live tables
+     */
+    public RentalLedger getLedger() {
+        return ledger;
+    }
+
+    public List<Vehicle> getAllVehicles() {
+        if (inventory.isLoaded()) return inventory.getAll();
+        try {
+            return loadVehicles(FLEET_QUERY);
         } catch (SQLException e) {
             showError("Error retrieving vehicles", e);
+            return new ArrayList<>();
         }
-        return vehicles;
     }
 
-    public synchronized List<Vehicle> getAvailableVehicles() {
-        List<Vehicle> availableVehicles = new ArrayList<>();
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("SELECT * FROM vehicles WHERE available_quantity > 0")) {
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    availableVehicles.add(new Vehicle(
-                            rs.getInt("id"), rs.getString("model"), rs.getString("type"),
-                            rs.getDouble("rent_per_day"), rs.getBoolean("is_available"),
-                            rs.getInt("quantity"), rs.getInt("available_quantity")));
-                }
-            }
+    public List<Vehicle> getAvailableVehicles() {
+        if (inventory.isLoaded()) return inventory.getAvailable();
+        try {
+            return loadVehicles(AVAILABLE_FLEET_QUERY);
         } catch (SQLException e) {
             showError("Error retrieving available vehicles", e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Vehicles of one type with at least one unit available, e.g. "Car"
+     */
+    public List<Vehicle> getAvailableVehicles(String type) {
+        if (inventory.isLoaded()) return inventory.getAvailable(type);
+        List<Vehicle> available = new ArrayList<>();
+        for (Vehicle vehicle : getAvailableVehicles()) {
+            if (vehicle.getType().equals(type)) available.add(vehicle);
         }
-        return availableVehicles;
+        return available;
     }
 
-    public synchronized Optional<Vehicle> getVehicleById(int id) {
+    /**
+     * Model and unit totals for the whole fleet, or only for models that can be rented now
+     */
+    public AvailabilityIndex.Counts getInventoryCounts(boolean availableOnly) {
+        if (inventory.isLoaded()) return inventory.getAvailability().getCounts(availableOnly);
+
+        int units = 0, availableUnits = 0;
+        List<Vehicle> vehicles = availableOnly ? getAvailableVehicles() : getAllVehicles();
+        for (Vehicle vehicle : vehicles) {
+            units += vehicle.getQuantity();
+            availableUnits += vehicle.getAvailableQuantity();
+        }
+        return new AvailabilityIndex.Counts(vehicles.size(), units, availableUnits);
+    }
+
+    public Optional<Vehicle> getVehicleById(int id) {
+        if (inventory.isLoaded()) return inventory.get(id);
         try (Connection conn = dbManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("SELECT * FROM vehicles WHERE id = ?")) {
+             PreparedStatement stmt = conn.prepareStatement(VEHICLE_QUERY)) {
             stmt.setInt(1, id);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
                     return Optional.of(new Vehicle(
                             rs.getInt("id"), rs.getString("model"), rs.getString("type"),
-                            rs.getDouble("rent_per_day"), rs.getBoolean("is_available")));
+                            rs.getDouble("rent_per_day"), rs.getBoolean("is_available"),
+                            rs.getInt("quantity"), rs.getInt("available_quantity")));
                 }
             }
         } catch (SQLException e) {
@@ -83,203 +235,564 @@ public class RentalManager {
         return Optional.empty();
     }
 
-    public synchronized boolean updateVehicleQuantity(int vehicleId, int newQuantity) {
+    private List<Vehicle> loadVehicles(String query) throws SQLException {
+        List<Vehicle> vehicles = new ArrayList<>();
         try (Connection conn = dbManager.getConnection();
-             PreparedStatement checkStmt = conn.prepareStatement("SELECT id, is_available FROM vehicles WHERE id = ?")) {
-            checkStmt.setInt(1, vehicleId);
-            try (ResultSet rs = checkStmt.executeQuery()) {
-                if (!rs.next()) return false;
-
-                boolean isAvailable = rs.getBoolean("is_available");
-                boolean hasQuantityColumns = false;
-                int currentRented = 0;
-
-                try (Statement stmt = conn.createStatement()) {
-                    try (ResultSet columns = conn.getMetaData().getColumns(null, null, "vehicles", "quantity")) {
-                        hasQuantityColumns = columns.next();
-                    }
+             PreparedStatement stmt = conn.prepareStatement(query);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                vehicles.add(new Vehicle(
+                        rs.getInt("id"), rs.getString("model"), rs.getString("type"),
+                        rs.getDouble("rent_per_day"), rs.getBoolean("is_available"),
+                        rs.getInt("quantity"), rs.getInt("available_quantity")));
+            }
+        }
+        return vehicles;
+    }
 
-                    if (!hasQuantityColumns) {
-                        stmt.executeUpdate("ALTER TABLE vehicles ADD COLUMN quantity INT DEFAULT 1");
-                        stmt.executeUpdate("ALTER TABLE vehicles ADD COLUMN available_quantity INT DEFAULT 1");
-                        stmt.executeUpdate("UPDATE vehicles SET quantity = 1, " +
-                                "available_quantity = CASE WHEN is_available = 1 THEN 1 ELSE 0 END");
-                    }
-                }
+    public boolean updateVehicleQuantity(int vehicleId, int newQuantity) {
+        SQLException failure;
+        Lock lock = lockFor(vehicleId);
+        lock.lock();
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            // Locks the row, since optimistic rents and returns change it without the stripe lock
+            try (PreparedStatement checkStmt = conn.prepareStatement(LOCK_VEHICLE_QUANTITY_QUERY)) {
+                checkStmt.setInt(1, vehicleId);
+                int quantity;
+                int newAvailable;
+                try (ResultSet rs = checkStmt.executeQuery()) {
+                    if (!rs.next()) return false;
 
-                if (hasQuantityColumns) {
-                    try (PreparedStatement quantStmt = conn.prepareStatement(
-                            "SELECT quantity, available_quantity FROM vehicles WHERE id = ?")) {
-                        quantStmt.setInt(1, vehicleId);
-                        try (ResultSet qrs = quantStmt.executeQuery()) {
-                            if (qrs.next()) {
-                                currentRented = qrs.getInt("quantity") - qrs.getInt("available_quantity");
-                            }
-                        }
-                    }
-                } else {
-                    currentRented = isAvailable ? 0 : 1;
+                    quantity = rs.getInt("quantity");
+                    int currentRented = quantity - rs.getInt("available_quantity");
+                    if (newQuantity < currentRented) return false;
+                    newAvailable = newQuantity - currentRented;
                 }
 
-                if (newQuantity < currentRented) return false;
-
-                int newAvailable = newQuantity - currentRented;
-                try (PreparedStatement updateStmt = conn.prepareStatement(
-                        "UPDATE vehicles SET quantity = ?, available_quantity = ?, is_available = ? WHERE id = ?")) {
+                try (PreparedStatement updateStmt = conn.prepareStatement(SET_QUANTITY_UPDATE)) {
                     updateStmt.setInt(1, newQuantity);
                     updateStmt.setInt(2, newAvailable);
                     updateStmt.setBoolean(3, newAvailable > 0);
                     updateStmt.setInt(4, vehicleId);
-                    return updateStmt.executeUpdate() > 0;
+                    if (updateStmt.executeUpdate() == 0) return false;
                 }
+                ledger.append(conn, vehicleId, RentalEvent.quantityChanged(vehicleId, newQuantity, newAvailable));
+                conn.commit();
+                // A delta, so it commutes with the cache updates of rents and returns that
+                // committed around this change
+                inventory.adjustQuantity(vehicleId, newQuantity - quantity);
+                return true;
+            } finally {
+                // Rolls back the early returns; a no-op after commit
+                conn.rollback();
+                conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
-            showError("Error updating vehicle quantity", e);
-            return false;
+            failure = e;
+        } finally {
+            lock.unlock();
         }
+        // Reported once the lock and connection are released, so an open dialog holds neither
+        showError("Error updating vehicle quantity", failure);
+        return false;
     }
 
-    public synchronized boolean rentVehicle(int id) {
+    public boolean rentVehicle(int id) {
+        SQLException failure;
         Connection conn = null;
+        ConcurrencyMode mode = concurrencyMode;
+        // A guarded claim needs no stripe lock; the row lock of its UPDATE settles races
+        Lock lock = mode == ConcurrencyMode.OPTIMISTIC ? null : lockFor(id);
+        if (lock != null) lock.lock();
         try {
             conn = dbManager.getConnection();
             conn.setAutoCommit(false);
+            long started = System.nanoTime();
+
+            String username = LoginPanel.UserSession.getInstance().getUsername();
+            boolean rented = mode == ConcurrencyMode.OPTIMISTIC ?
+                    rentOptimistic(conn, id, username) :
+                    rentLocking(conn, id, username);
+
+            if (rented) {
+                counters.commit(conn, c -> c.rentalsOpened(1));
+                recordTransaction(started);
+                inventory.adjustAvailable(id, -1);
+                receipts.signal();
+                return true;
+            }
 
-            // Check if the vehicle is available first
-            try (PreparedStatement checkStmt = conn.prepareStatement(
-                    "SELECT available_quantity FROM vehicles WHERE id = ? FOR UPDATE")) {
-                checkStmt.setInt(1, id);
-                boolean canRent = false;
-
-                try (ResultSet rs = checkStmt.executeQuery()) {
-                    canRent = rs.next() && rs.getInt("available_quantity") > 0;
+            conn.rollback();
+            return false;
+        } catch (SQLException e) {
+            if (conn != null) {
+                try {
+                    conn.rollback();
+                } catch (SQLException rollbackEx) {
+                    // Log rollback error
+                    rollbackEx.printStackTrace();
                 }
+            }
+            failure = e;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (SQLException e) {
+                    // Log autocommit error
+                    e.printStackTrace();
+                }
+                dbManager.releaseConnection(conn);
+            }
+            if (lock != null) lock.unlock();
+        }
+        // Reported once the lock and connection are released, so an open dialog holds neither
+        showError("Error renting vehicle", failure);
+        return false;
+    }
 
-                if (canRent) {
-                    // Update vehicle available quantity
-                    try (PreparedStatement updateStmt = conn.prepareStatement(
-                            "UPDATE vehicles SET available_quantity = available_quantity - 1, " +
-                                    "is_available = CASE WHEN available_quantity - 1 > 0 THEN 1 ELSE 0 END " +
-                                    "WHERE id = ?")) {
-                        updateStmt.setInt(1, id);
-                        updateStmt.executeUpdate();
-                    }
+    // Locks the vehicle row, checks availability, then decrements and records the rental
+    private boolean rentLocking(Connection conn, int id, String username) throws SQLException {
+        // Check if the vehicle is available first
+        try (PreparedStatement checkStmt = conn.prepareStatement(LOCK_VEHICLE_QUERY)) {
+            checkStmt.setInt(1, id);
+            try (ResultSet rs = checkStmt.executeQuery()) {
+                if (!rs.next() || rs.getInt("available_quantity") <= 0) return false;
+            }
+        }
 
-                    // Insert rental record
-                    String username = LoginPanel.UserSession.getInstance().getUsername();
-                    try (PreparedStatement insertRentalStmt = conn.prepareStatement(
-                            "INSERT INTO rental_records (vehicle_id, username, rent_date) VALUES (?, ?, ?)")) {
-                        insertRentalStmt.setInt(1, id);
-                        insertRentalStmt.setString(2, username);
-                        insertRentalStmt.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
-                        insertRentalStmt.executeUpdate();
-                    }
+        // Update vehicle available quantity
+        try (PreparedStatement updateStmt = conn.prepareStatement(TAKE_UNIT_UPDATE)) {
+            updateStmt.setInt(1, id);
+            updateStmt.executeUpdate();
+        }
 
-                    conn.commit();
-                    fileManager.processRental(LoginPanel.UserSession.getInstance().getUsername(), id, this);
-                    return true;
-                }
+        insertRentalRecord(conn, id, username);
+        return true;
+    }
+
+    // Claims a unit with a guarded decrement; the affected row count says whether one was free
+    private boolean rentOptimistic(Connection conn, int id, String username) throws SQLException {
+        try (PreparedStatement claimStmt = conn.prepareStatement(CLAIM_UNIT_UPDATE)) {
+            claimStmt.setInt(1, id);
+            if (claimStmt.executeUpdate() == 0) {
+                optimisticConflicts.incrementAndGet();
+                return false;
+            }
+        }
+
+        insertRentalRecord(conn, id, username);
+        return true;
+    }
+
+    private void insertRentalRecord(Connection conn, int vehicleId, String username) throws SQLException {
+        LocalDateTime now = LocalDateTime.now();
+        try (PreparedStatement insertRentalStmt = conn.prepareStatement(
+                "INSERT INTO rental_records (vehicle_id, username, rent_date) VALUES (?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            insertRentalStmt.setInt(1, vehicleId);
+            insertRentalStmt.setString(2, username);
+            insertRentalStmt.setTimestamp(3, Timestamp.valueOf(now));
+            insertRentalStmt.executeUpdate();
+            try (ResultSet keys = insertRentalStmt.getGeneratedKeys()) {
+                if (!keys.next()) throw new SQLException("No id generated for rental record");
+                ledger.append(conn, vehicleId, RentalEvent.rented(keys.getInt(1), vehicleId, username, now));
+            }
+        }
+        receipts.enqueue(conn, ReceiptOutbox.RENTAL, username, now,
+                Collections.singletonList(receiptUnit(conn, vehicleId, now)));
+    }
 
+    // The vehicle as its receipt shows it, read in the caller's transaction on the row it has locked
+    private static String[] receiptUnit(Connection conn, int vehicleId, LocalDateTime rentDate)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(RECEIPT_VEHICLE_QUERY)) {
+            stmt.setInt(1, vehicleId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) throw new SQLException("Vehicle " + vehicleId + " not found for receipt");
+                return ReceiptOutbox.unit(new Vehicle(vehicleId, rs.getString("model"), rs.getString("type"),
+                        rs.getDouble("rent_per_day"), 1), rentDate);
+            }
+        }
+    }
+
+    public boolean returnVehicle(int vehicleId) {
+        SQLException failure;
+        Connection conn = null;
+        ConcurrencyMode mode = concurrencyMode;
+        Lock lock = mode == ConcurrencyMode.OPTIMISTIC ? null : lockFor(vehicleId);
+        if (lock != null) lock.lock();
+        try {
+            conn = dbManager.getConnection();
+            conn.setAutoCommit(false);
+            long started = System.nanoTime();
+
+            String username = mode == ConcurrencyMode.OPTIMISTIC ?
+                    returnOptimistic(conn, vehicleId) :
+                    returnLocking(conn, vehicleId);
+
+            if (username == null) {
                 conn.rollback();
                 return false;
             }
+
+            counters.commit(conn, c -> c.rentalsClosed(1));
+            recordTransaction(started);
+            inventory.adjustAvailable(vehicleId, 1);
+            receipts.signal();
+            return true;
         } catch (SQLException e) {
             if (conn != null) {
                 try {
                     conn.rollback();
                 } catch (SQLException rollbackEx) {
-                    // Log rollback error
                     rollbackEx.printStackTrace();
                 }
             }
-            showError("Error renting vehicle", e);
-            return false;
+            failure = e;
         } finally {
             if (conn != null) {
                 try {
                     conn.setAutoCommit(true);
-                    // Don't close the connection here, let it be managed by dbManager
                 } catch (SQLException e) {
-                    // Log autocommit error
                     e.printStackTrace();
                 }
+                dbManager.releaseConnection(conn);
             }
+            if (lock != null) lock.unlock();
         }
+        // Reported once the lock and connection are released, so an open dialog holds neither
+        showError("Error returning vehicle", failure);
+        return false;
     }
 
-    public synchronized boolean returnVehicle(int vehicleId) {
+    /**
+     * Checks the vehicle, finds its latest open rental and closes it.
+     *
+     * @return the renter's username, or null if there was nothing to return
+     */
+    private String returnLocking(Connection conn, int vehicleId) throws SQLException {
+        // Check if the vehicle exists and was rented
+        try (PreparedStatement checkStmt = conn.prepareStatement(VEHICLE_QUANTITY_QUERY)) {
+            checkStmt.setInt(1, vehicleId);
+            try (ResultSet rs = checkStmt.executeQuery()) {
+                if (!rs.next()) return null; // Vehicle doesn't exist
+
+                // Can't return more than total
+                if (rs.getInt("available_quantity") >= rs.getInt("quantity")) {
+                    return null; // Already all returned
+                }
+            }
+        }
+
+        ActiveRental rental = findLatestActiveRental(conn, vehicleId);
+        if (rental == null) return null; // No active rental found
+
+        // Update the rental record
+        LocalDateTime now = LocalDateTime.now();
+        try (PreparedStatement updateRentalStmt = conn.prepareStatement(CLOSE_RENTAL_UPDATE)) {
+            updateRentalStmt.setTimestamp(1, Timestamp.valueOf(now));
+            updateRentalStmt.setInt(2, rental.id);
+            updateRentalStmt.executeUpdate();
+        }
+
+        // Update the vehicle availability
+        try (PreparedStatement updateVehicleStmt = conn.prepareStatement(RELEASE_UNIT_UPDATE)) {
+            updateVehicleStmt.setInt(1, vehicleId);
+            updateVehicleStmt.executeUpdate();
+        }
+
+        ledger.append(conn, vehicleId, RentalEvent.returned(rental.id, now));
+        enqueueReturnReceipt(conn, vehicleId, rental, now);
+        return rental.username;
+    }
+
+    /**
+     * Closes the latest open rental and gives the unit back using guarded updates
+     * instead of a prior availability check. If another return closes the same
+     * rental first, the next open one is tried.
+     *
+     * @return the renter's username, or null if there was nothing to return
+     */
+    private String returnOptimistic(Connection conn, int vehicleId) throws SQLException {
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_ATTEMPTS; attempt++) {
+            ActiveRental rental = findLatestActiveRental(conn, vehicleId);
+            if (rental == null) return null;
+
+            LocalDateTime now = LocalDateTime.now();
+            try (PreparedStatement closeStmt = conn.prepareStatement(CLOSE_OPEN_RENTAL_UPDATE)) {
+                closeStmt.setTimestamp(1, Timestamp.valueOf(now));
+                closeStmt.setInt(2, rental.id);
+                if (closeStmt.executeUpdate() == 0) {
+                    optimisticConflicts.incrementAndGet();
+                    continue;
+                }
+            }
+
+            try (PreparedStatement releaseStmt = conn.prepareStatement(RETURN_UNIT_UPDATE)) {
+                releaseStmt.setInt(1, vehicleId);
+                if (releaseStmt.executeUpdate() == 0) {
+                    optimisticConflicts.incrementAndGet();
+                    return null; // Already all returned
+                }
+            }
+            ledger.append(conn, vehicleId, RentalEvent.returned(rental.id, now));
+            enqueueReturnReceipt(conn, vehicleId, rental, now);
+            return rental.username;
+        }
+        return null;
+    }
+
+    private void enqueueReturnReceipt(Connection conn, int vehicleId, ActiveRental rental, LocalDateTime returnDate)
+            throws SQLException {
+        receipts.enqueue(conn, ReceiptOutbox.RETURN, rental.username, returnDate,
+                Collections.singletonList(receiptUnit(conn, vehicleId, rental.rentDate)));
+    }
+
+    // Get the latest rental record for this vehicle that hasn't been returned
+    private ActiveRental findLatestActiveRental(Connection conn, int vehicleId) throws SQLException {
+        try (PreparedStatement rentalStmt = conn.prepareStatement(OPEN_RENTAL_QUERY)) {
+            rentalStmt.setInt(1, vehicleId);
+            try (ResultSet rentalRs = rentalStmt.executeQuery()) {
+                if (!rentalRs.next()) return null;
+                return new ActiveRental(rentalRs.getInt("id"), rentalRs.getString("username"),
+                        rentalRs.getTimestamp("rent_date").toLocalDateTime());
+            }
+        }
+    }
+
+    private void recordTransaction(long startedNanos) {
+        rentalTransactions.incrementAndGet();
+        rentalTransactionNanos.addAndGet(System.nanoTime() - startedNanos);
+    }
+
+    /**
+     * Selects how rentVehicle and returnVehicle claim inventory. Takes effect for
+     * the next call, so both modes can be compared on a running system.
+     */
+    public void setConcurrencyMode(ConcurrencyMode concurrencyMode) {
+        this.concurrencyMode = Objects.requireNonNull(concurrencyMode);
+    }
+
+    public ConcurrencyMode getConcurrencyMode() {
+        return concurrencyMode;
+    }
+
+    /** Number of guarded updates that matched no row because availability changed underneath them */
+    public long getOptimisticConflicts() {
+        return optimisticConflicts.get();
+    }
+
+    /** Mean time from the first statement to commit of successful rent/return transactions */
+    public double getAverageRentalTransactionMillis() {
+        long count = rentalTransactions.get();
+        return count == 0 ? 0.0 : rentalTransactionNanos.get() / (count * 1_000_000.0);
+    }
+
+    /**
+     * Rents one unit per entry of {@code vehicleIds} (repeat an id to rent several
+     * units of it) in a single transaction, all or nothing.
+     */
+    public BatchResult rentVehicles(List<Integer> vehicleIds) {
+        return rentVehicles(vehicleIds, BatchMode.ALL_OR_NOTHING);
+    }
+
+    /**
+     * Rents one unit per entry of {@code vehicleIds} in a single transaction using
+     * JDBC batches, and requests one consolidated receipt for the units rented.
+     */
+    public BatchResult rentVehicles(List<Integer> vehicleIds, BatchMode mode) {
+        if (vehicleIds.isEmpty()) return new BatchResult(List.of(), List.of());
+
+        SQLException failure;
+        List<Lock> locks = lockAll(vehicleIds);
         Connection conn = null;
         try {
             conn = dbManager.getConnection();
             conn.setAutoCommit(false);
+            long started = System.nanoTime();
+
+            List<Integer> rented = new ArrayList<>();
+            List<Integer> failed = new ArrayList<>();
+            try (PreparedStatement claimStmt = conn.prepareStatement(CLAIM_UNIT_UPDATE)) {
+                for (int id : vehicleIds) {
+                    claimStmt.setInt(1, id);
+                    claimStmt.addBatch();
+                }
+                int[] counts = claimStmt.executeBatch();
+                for (int i = 0; i < counts.length; i++) {
+                    (isRowAffected(counts[i]) ? rented : failed).add(vehicleIds.get(i));
+                }
+            }
 
-            // Check if the vehicle exists and was rented
-            String checkQuery = "SELECT v.id, v.quantity, v.available_quantity FROM vehicles v " +
-                    "WHERE v.id = ?";
+            if (rented.isEmpty() || (mode == BatchMode.ALL_OR_NOTHING && !failed.isEmpty())) {
+                conn.rollback();
+                return new BatchResult(List.of(), vehicleIds);
+            }
 
-            try (PreparedStatement checkStmt = conn.prepareStatement(checkQuery)) {
-                checkStmt.setInt(1, vehicleId);
-                ResultSet rs = checkStmt.executeQuery();
+            String username = LoginPanel.UserSession.getInstance().getUsername();
+            LocalDateTime now = LocalDateTime.now();
+            List<String[]> events = new ArrayList<>(rented.size());
+            try (PreparedStatement insertRentalStmt = conn.prepareStatement(
+                    "INSERT INTO rental_records (vehicle_id, username, rent_date) VALUES (?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                for (int id : rented) {
+                    insertRentalStmt.setInt(1, id);
+                    insertRentalStmt.setString(2, username);
+                    insertRentalStmt.setTimestamp(3, Timestamp.valueOf(now));
+                    insertRentalStmt.addBatch();
+                }
+                insertRentalStmt.executeBatch();
+                try (ResultSet keys = insertRentalStmt.getGeneratedKeys()) {
+                    for (int id : rented) {
+                        if (!keys.next()) throw new SQLException("No id generated for rental record");
+                        events.add(RentalEvent.rented(keys.getInt(1), id, username, now));
+                    }
+                }
+            }
+            ledger.appendAll(conn, rented, events);
+            List<String[]> units = new ArrayList<>(rented.size());
+            for (int id : rented) {
+                units.add(receiptUnit(conn, id, now));
+            }
+            receipts.enqueue(conn, ReceiptOutbox.BATCH_RENTAL, username, now, units);
 
-                if (!rs.next()) {
+            counters.commit(conn, c -> c.rentalsOpened(rented.size()));
+            recordTransaction(started);
+            for (int id : rented) {
+                inventory.adjustAvailable(id, -1);
+            }
+            receipts.signal();
+            return new BatchResult(rented, failed);
+        } catch (SQLException e) {
+            if (conn != null) {
+                try {
                     conn.rollback();
-                    return false; // Vehicle doesn't exist
+                } catch (SQLException rollbackEx) {
+                    rollbackEx.printStackTrace();
+                }
+            }
+            failure = e;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (SQLException e) {
+                    e.printStackTrace();
                 }
+                dbManager.releaseConnection(conn);
+            }
+            unlockAll(locks);
+        }
+        // Reported once the locks and connection are released, so an open dialog holds neither
+        showError("Error renting vehicles", failure);
+        return new BatchResult(List.of(), vehicleIds);
+    }
 
-                int availableQty = rs.getInt("available_quantity");
-                int totalQty = rs.getInt("quantity");
+    /**
+     * Returns one unit per entry of {@code vehicleIds} in a single transaction, all or nothing.
+     */
+    public BatchResult returnVehicles(List<Integer> vehicleIds) {
+        return returnVehicles(vehicleIds, BatchMode.ALL_OR_NOTHING);
+    }
 
-                // Can't return more than total
-                if (availableQty >= totalQty) {
-                    conn.rollback();
-                    return false; // Already all returned
-                }
+    /**
+     * Returns one unit per entry of {@code vehicleIds} in a single transaction, closing
+     * the latest open rentals of each vehicle with JDBC batches, and requests one
+     * consolidated return receipt per user whose rentals were closed.
+     */
+    public BatchResult returnVehicles(List<Integer> vehicleIds, BatchMode mode) {
+        if (vehicleIds.isEmpty()) return new BatchResult(List.of(), List.of());
 
-                // Get the latest rental record for this vehicle that hasn't been returned
-                String rentalQuery = "SELECT id, username FROM rental_records " +
-                        "WHERE vehicle_id = ? AND return_date IS NULL " +
-                        "ORDER BY rent_date DESC LIMIT 1";
+        SQLException failure;
+        List<Lock> locks = lockAll(vehicleIds);
+        Connection conn = null;
+        try {
+            conn = dbManager.getConnection();
+            conn.setAutoCommit(false);
+            long started = System.nanoTime();
 
-                int rentalId = -1;
-                String username = "";
-                try (PreparedStatement rentalStmt = conn.prepareStatement(rentalQuery)) {
-                    rentalStmt.setInt(1, vehicleId);
-                    ResultSet rentalRs = rentalStmt.executeQuery();
+            // How many units of each vehicle are being returned
+            Map<Integer, Integer> unitsPerVehicle = new LinkedHashMap<>();
+            for (int id : vehicleIds) {
+                unitsPerVehicle.merge(id, 1, Integer::sum);
+            }
 
-                    if (!rentalRs.next()) {
-                        conn.rollback();
-                        return false; // No active rental found
+            List<RentalRecord> closing = new ArrayList<>();
+            List<Integer> failed = new ArrayList<>();
+            try (PreparedStatement rentalStmt = conn.prepareStatement(OPEN_RENTALS_QUERY)) {
+                for (Map.Entry<Integer, Integer> entry : unitsPerVehicle.entrySet()) {
+                    int vehicleId = entry.getKey();
+                    int found = 0;
+                    rentalStmt.setInt(1, vehicleId);
+                    rentalStmt.setInt(2, entry.getValue());
+                    try (ResultSet rs = rentalStmt.executeQuery()) {
+                        while (rs.next()) {
+                            closing.add(new RentalRecord(rs.getInt("id"), vehicleId, rs.getString("username"),
+                                    rs.getTimestamp("rent_date").toLocalDateTime(), null, 0.0, null, null));
+                            found++;
+                        }
+                    }
+                    for (int i = found; i < entry.getValue(); i++) {
+                        failed.add(vehicleId);
                     }
-
-                    rentalId = rentalRs.getInt("id");
-                    username = rentalRs.getString("username");
                 }
+            }
 
-                // Update the rental record
-                String updateRentalQuery = "UPDATE rental_records SET return_date = NOW() " +
-                        "WHERE id = ?";
+            if (closing.isEmpty() || (mode == BatchMode.ALL_OR_NOTHING && !failed.isEmpty())) {
+                conn.rollback();
+                return new BatchResult(List.of(), vehicleIds);
+            }
 
-                try (PreparedStatement updateRentalStmt = conn.prepareStatement(updateRentalQuery)) {
-                    updateRentalStmt.setInt(1, rentalId);
-                    updateRentalStmt.executeUpdate();
+            LocalDateTime now = LocalDateTime.now();
+            try (PreparedStatement closeStmt = conn.prepareStatement(CLOSE_OPEN_RENTAL_UPDATE);
+                 PreparedStatement releaseStmt = conn.prepareStatement(RETURN_UNIT_UPDATE)) {
+                for (RentalRecord rental : closing) {
+                    closeStmt.setTimestamp(1, Timestamp.valueOf(now));
+                    closeStmt.setInt(2, rental.getId());
+                    closeStmt.addBatch();
+                    releaseStmt.setInt(1, rental.getVehicleId());
+                    releaseStmt.addBatch();
                 }
-
-                // Update the vehicle availability
-                String updateVehicleQuery = "UPDATE vehicles SET available_quantity = available_quantity + 1, " +
-                        "is_available = 1 " +
-                        "WHERE id = ?";
-
-                try (PreparedStatement updateVehicleStmt = conn.prepareStatement(updateVehicleQuery)) {
-                    updateVehicleStmt.setInt(1, vehicleId);
-                    updateVehicleStmt.executeUpdate();
+                int[] closed = closeStmt.executeBatch();
+                int[] released = releaseStmt.executeBatch();
+                for (int i = 0; i < closed.length; i++) {
+                    if (!isRowAffected(closed[i]) || !isRowAffected(released[i])) {
+                        // Rows are locked per vehicle, so this only happens if the data is inconsistent
+                        conn.rollback();
+                        return new BatchResult(List.of(), vehicleIds);
+                    }
                 }
+            }
 
-                // Process the return through FileManager
-                fileManager.processReturn(username, vehicleId, this);
+            List<Integer> closedVehicles = new ArrayList<>(closing.size());
+            List<String[]> events = new ArrayList<>(closing.size());
+            for (RentalRecord rental : closing) {
+                closedVehicles.add(rental.getVehicleId());
+                events.add(RentalEvent.returned(rental.getId(), now));
+            }
+            ledger.appendAll(conn, closedVehicles, events);
+            // Receipts go to whoever rented, e.g. when an admin returns other users' rentals
+            Map<String, List<String[]>> unitsPerUser = new LinkedHashMap<>();
+            for (RentalRecord rental : closing) {
+                unitsPerUser.computeIfAbsent(rental.getUsername(), u -> new ArrayList<>())
+                        .add(receiptUnit(conn, rental.getVehicleId(), rental.getRentDate()));
+            }
+            for (Map.Entry<String, List<String[]>> entry : unitsPerUser.entrySet()) {
+                receipts.enqueue(conn, ReceiptOutbox.BATCH_RETURN, entry.getKey(), now, entry.getValue());
+            }
 
-                conn.commit();
-                return true;
+            counters.commit(conn, c -> c.rentalsClosed(closing.size()));
+            recordTransaction(started);
+
+            List<Integer> returned = new ArrayList<>();
+            for (RentalRecord rental : closing) {
+                returned.add(rental.getVehicleId());
+                inventory.adjustAvailable(rental.getVehicleId(), 1);
             }
+            receipts.signal();
+            return new BatchResult(returned, failed);
         } catch (SQLException e) {
             if (conn != null) {
                 try {
@@ -288,8 +801,7 @@ public class RentalManager {
                     rollbackEx.printStackTrace();
                 }
             }
-            showError("Error returning vehicle", e);
-            return false;
+            failure = e;
         } finally {
             if (conn != null) {
                 try {
@@ -297,62 +809,151 @@ public class RentalManager {
                 } catch (SQLException e) {
                     e.printStackTrace();
                 }
+                dbManager.releaseConnection(conn);
             }
+            unlockAll(locks);
         }
+        // Reported once the locks and connection are released, so an open dialog holds neither
+        showError("Error returning vehicles", failure);
+        return new BatchResult(List.of(), vehicleIds);
     }
 
-    public synchronized void addVehicle(String model, String type, double rentPerDay, int quantity) {
+    // Drivers may report SUCCESS_NO_INFO for batched statements; treat it as applied
+    private static boolean isRowAffected(int updateCount) {
+        return updateCount > 0 || updateCount == Statement.SUCCESS_NO_INFO;
+    }
+
+    // Takes the stripes of all vehicles in ascending stripe order so batches can't deadlock each other
+    private List<Lock> lockAll(Collection<Integer> vehicleIds) {
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (int id : vehicleIds) {
+            stripes.add(stripeOf(id));
+        }
+        List<Lock> locks = new ArrayList<>(stripes.size());
+        for (int stripe : stripes) {
+            locks.add(vehicleLocks[stripe]);
+        }
+        for (Lock lock : locks) {
+            lock.lock();
+        }
+        return locks;
+    }
+
+    private static void unlockAll(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    public void addVehicle(String model, String type, double rentPerDay, int quantity) {
         validateVehicleData(model, type, rentPerDay);
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(
-                     "INSERT INTO vehicles (model, type, rent_per_day, is_available, quantity, available_quantity) VALUES (?, ?, ?, ?, ?, ?)")) {
-            stmt.setString(1, model);
-            stmt.setString(2, type);
-            stmt.setDouble(3, rentPerDay);
-            stmt.setBoolean(4, true);
-            stmt.setInt(5, quantity);
-            stmt.setInt(6, quantity);
-            stmt.executeUpdate();
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO vehicles (model, type, rent_per_day, is_available, quantity, available_quantity) VALUES (?, ?, ?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setString(1, model);
+                stmt.setString(2, type);
+                stmt.setDouble(3, rentPerDay);
+                stmt.setBoolean(4, true);
+                stmt.setInt(5, quantity);
+                stmt.setInt(6, quantity);
+                stmt.executeUpdate();
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    if (!keys.next()) throw new SQLException("No id generated for vehicle");
+                    Vehicle vehicle = new Vehicle(keys.getInt(1), model, type, rentPerDay, quantity);
+                    ledger.append(conn, vehicle.getId(), RentalEvent.vehicleAdded(vehicle));
+                    conn.commit();
+                    inventory.put(vehicle);
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             showError("Error adding vehicle", e);
         }
     }
 
-    public synchronized void addVehicle(String model, String type, double rentPerDay) {
+    public void addVehicle(String model, String type, double rentPerDay) {
         addVehicle(model, type, rentPerDay, 1);
     }
 
-    private void validateVehicleData(String model, String type, double rentPerDay) {
+    static void validateVehicleData(String model, String type, double rentPerDay) {
         if (model == null || model.trim().isEmpty()) throw new IllegalArgumentException("Model cannot be empty");
         if (type == null || type.trim().isEmpty()) throw new IllegalArgumentException("Type cannot be empty");
         if (rentPerDay <= 0) throw new IllegalArgumentException("Rent per day must be positive");
     }
 
-    public synchronized boolean removeVehicle(int id) {
+    /**
+     * Bulk-loads vehicles from a CSV or JSON-lines file; see {@link FleetTransfer}
+     */
+    public FleetTransfer.ImportResult importVehicles(Path file, FleetTransfer.ProgressListener listener)
+            throws IOException, SQLException {
+        try {
+            // Each chunk's events are written in the chunk's transaction, so the ledger holds
+            // exactly the vehicles that were committed
+            return new FleetTransfer(dbManager).importVehicles(file, listener, this::recordImported);
+        } finally {
+            // Committed chunks are visible even if the import failed part way
+            reloadInventory();
+        }
+    }
+
+    private void recordImported(Connection conn, List<Vehicle> inserted) throws SQLException {
+        List<Integer> ids = new ArrayList<>(inserted.size());
+        List<String[]> events = new ArrayList<>(inserted.size());
+        for (Vehicle vehicle : inserted) {
+            ids.add(vehicle.getId());
+            events.add(RentalEvent.vehicleAdded(vehicle));
+        }
+        ledger.appendAll(conn, ids, events);
+    }
+
+    /**
+     * Streams every vehicle to a CSV or JSON-lines file; see {@link FleetTransfer}
+     */
+    public long exportVehicles(Path file) throws IOException, SQLException {
+        return new FleetTransfer(dbManager).exportVehicles(file);
+    }
+
+    public boolean removeVehicle(int id) {
+        boolean hasActiveRentals = false;
+        SQLException failure = null;
+        Lock lock = lockFor(id);
+        lock.lock();
         try (Connection conn = dbManager.getConnection()) {
             conn.setAutoCommit(false);
             try {
-                try (PreparedStatement checkRentalStmt = conn.prepareStatement(
-                        "SELECT COUNT(*) FROM rental_records WHERE vehicle_id = ? AND return_date IS NULL")) {
+                // Waits for an optimistic rent, which takes no stripe lock, to commit its rental first
+                try (PreparedStatement lockStmt = conn.prepareStatement(LOCK_VEHICLE_QUERY)) {
+                    lockStmt.setInt(1, id);
+                    try (ResultSet rs = lockStmt.executeQuery()) {
+                        if (!rs.next()) return false;
+                    }
+                }
+                try (PreparedStatement checkRentalStmt = conn.prepareStatement(OPEN_RENTAL_COUNT_QUERY)) {
                     checkRentalStmt.setInt(1, id);
                     try (ResultSet rs = checkRentalStmt.executeQuery()) {
                         if (rs.next() && rs.getInt(1) == 0) {
-                            try (PreparedStatement deleteStmt = conn.prepareStatement("DELETE FROM vehicles WHERE id = ?")) {
+                            try (PreparedStatement deleteStmt = conn.prepareStatement(DELETE_VEHICLE_UPDATE)) {
                                 deleteStmt.setInt(1, id);
                                 int rowsAffected = deleteStmt.executeUpdate();
                                 if (rowsAffected > 0) {
+                                    ledger.append(conn, id, RentalEvent.vehicleRemoved(id));
                                     conn.commit();
+                                    inventory.remove(id);
                                     return true;
                                 }
                             }
                         } else {
-                            JOptionPane.showMessageDialog(null, "Cannot remove vehicle with active rentals",
-                                    "Remove Failed", JOptionPane.ERROR_MESSAGE);
+                            hasActiveRentals = true;
                         }
                     }
                 }
                 conn.rollback();
-                return false;
             } catch (SQLException e) {
                 conn.rollback();
                 throw e;
@@ -360,37 +961,70 @@ public class RentalManager {
                 conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
-            showError("Error removing vehicle", e);
-            return false;
+            failure = e;
+        } finally {
+            lock.unlock();
         }
+        // Shown once the transaction is over and the lock released, so an open dialog blocks no one
+        if (hasActiveRentals) {
+            JOptionPane.showMessageDialog(null, "Cannot remove vehicle with active rentals",
+                    "Remove Failed", JOptionPane.ERROR_MESSAGE);
+        }
+        if (failure != null) {
+            showError("Error removing vehicle", failure);
+        }
+        return false;
     }
 
-    public synchronized boolean updateVehicle(int id, String model, String type, double rentPerDay) {
+    public boolean updateVehicle(int id, String model, String type, double rentPerDay) {
         validateVehicleData(model, type, rentPerDay);
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(
-                     "UPDATE vehicles SET model = ?, type = ?, rent_per_day = ? WHERE id = ?")) {
-            stmt.setString(1, model);
-            stmt.setString(2, type);
-            stmt.setDouble(3, rentPerDay);
-            stmt.setInt(4, id);
-            int rowsAffected = stmt.executeUpdate();
-            if (rowsAffected == 0) {
-                JOptionPane.showMessageDialog(null, "No vehicle found with ID: " + id,
-                        "Update Failed", JOptionPane.ERROR_MESSAGE);
-            }
-            return rowsAffected > 0;
+        boolean found = true;
+        SQLException failure = null;
+        Lock lock = lockFor(id);
+        lock.lock();
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(VEHICLE_DETAILS_UPDATE)) {
+                stmt.setString(1, model);
+                stmt.setString(2, type);
+                stmt.setDouble(3, rentPerDay);
+                stmt.setInt(4, id);
+                int rowsAffected = stmt.executeUpdate();
+                if (rowsAffected == 0) {
+                    conn.rollback();
+                    found = false;
+                } else {
+                    ledger.append(conn, id, RentalEvent.vehicleUpdated(id, model, type, rentPerDay));
+                    conn.commit();
+                    inventory.updateDetails(id, model, type, rentPerDay);
+                    return true;
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
-            showError("Error updating vehicle", e);
-            return false;
+            failure = e;
+        } finally {
+            lock.unlock();
+        }
+        // Shown once the transaction is over and the lock released, as in removeVehicle
+        if (!found) {
+            JOptionPane.showMessageDialog(null, "No vehicle found with ID: " + id,
+                    "Update Failed", JOptionPane.ERROR_MESSAGE);
         }
+        if (failure != null) {
+            showError("Error updating vehicle", failure);
+        }
+        return false;
     }
 
-    public synchronized LocalDateTime getRentalTime(int vehicleId) {
+    public LocalDateTime getRentalTime(int vehicleId) {
         try (Connection conn = dbManager.getConnection()) {
             // First check active rentals
-            try (PreparedStatement stmt = conn.prepareStatement(
-                    "SELECT rent_date FROM rental_records WHERE vehicle_id = ? AND return_date IS NULL")) {
+            try (PreparedStatement stmt = conn.prepareStatement(OPEN_RENT_DATE_QUERY)) {
                 stmt.setInt(1, vehicleId);
                 try (ResultSet rs = stmt.executeQuery()) {
                     if (rs.next()) return rs.getTimestamp("rent_date").toLocalDateTime();
@@ -398,8 +1032,7 @@ public class RentalManager {
             }
 
             // If no active rental, check most recently returned
-            try (PreparedStatement returnedStmt = conn.prepareStatement(
-                    "SELECT rent_date FROM rental_records WHERE vehicle_id = ? ORDER BY return_date DESC LIMIT 1")) {
+            try (PreparedStatement returnedStmt = conn.prepareStatement(LAST_RENT_DATE_QUERY)) {
                 returnedStmt.setInt(1, vehicleId);
                 try (ResultSet returnedRs = returnedStmt.executeQuery()) {
                     if (returnedRs.next()) return returnedRs.getTimestamp("rent_date").toLocalDateTime();
@@ -411,26 +1044,51 @@ public class RentalManager {
         return null;
     }
 
-    public synchronized void updateRentalRecord(int vehicleId, double totalCost) {
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(
-                     "UPDATE rental_records SET total_cost = ? WHERE vehicle_id = ? AND return_date IS NOT NULL " +
-                             "ORDER BY return_date DESC LIMIT 1")) {
-            stmt.setDouble(1, totalCost);
-            stmt.setInt(2, vehicleId);
-            stmt.executeUpdate();
+    public void updateRentalRecord(int vehicleId, double totalCost) {
+        SQLException failure = null;
+        Lock lock = lockFor(vehicleId);
+        lock.lock();
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int rentalId;
+                double previousCost;
+                try (PreparedStatement findStmt = conn.prepareStatement(LAST_RETURNED_QUERY)) {
+                    findStmt.setInt(1, vehicleId);
+                    try (ResultSet rs = findStmt.executeQuery()) {
+                        if (!rs.next()) return;
+                        rentalId = rs.getInt(1);
+                        // NULL until a cost is recorded, and then counts as nothing
+                        previousCost = rs.getDouble(2);
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(COST_UPDATE)) {
+                    stmt.setDouble(1, totalCost);
+                    stmt.setInt(2, rentalId);
+                    stmt.executeUpdate();
+                }
+                ledger.append(conn, vehicleId, RentalEvent.costRecorded(rentalId, totalCost));
+                counters.commit(conn, c -> c.revenueChanged(totalCost - previousCost));
+            } finally {
+                // Rolls back the early return or a failure; a no-op after commit
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
-            showError("Failed to update rental record", e);
+            failure = e;
+        } finally {
+            lock.unlock();
+        }
+        // Reported once the lock and connection are released, so an open dialog holds neither
+        if (failure != null) {
+            showError("Failed to update rental record", failure);
         }
     }
 
-    public synchronized List<RentalRecord> getUserRentalHistory(String username) {
+    public List<RentalRecord> getUserRentalHistory(String username) {
         List<RentalRecord> rentalRecords = new ArrayList<>();
-        String query = "SELECT r.*, v.model, v.type FROM rental_records r " +
-                "JOIN vehicles v ON r.vehicle_id = v.id " +
-                "WHERE r.username = ? ORDER BY r.rent_date DESC";
         try (Connection conn = dbManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
+             PreparedStatement stmt = conn.prepareStatement(USER_HISTORY_QUERY)) {
             stmt.setString(1, username);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -448,13 +1106,10 @@ public class RentalManager {
         return rentalRecords;
     }
 
-    public synchronized List<RentalRecord> getActiveRentals() {
+    public List<RentalRecord> getActiveRentals() {
         List<RentalRecord> activeRentals = new ArrayList<>();
-        String query = "SELECT r.*, v.model, v.type FROM rental_records r " +
-                "JOIN vehicles v ON r.vehicle_id = v.id " +
-                "WHERE r.return_date IS NULL ORDER BY r.rent_date ASC";
         try (Connection conn = dbManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query);
+             PreparedStatement stmt = conn.prepareStatement(ACTIVE_RENTALS_QUERY);
              ResultSet rs = stmt.executeQuery()) {
             while (rs.next()) {
                 activeRentals.add(new RentalRecord(
@@ -469,10 +1124,154 @@ public class RentalManager {
         return activeRentals;
     }
 
-    public synchronized boolean isVehicleRentedByUser(String username, int vehicleId) {
+    public RentalPage getUserRentalHistory(String username, String cursor, int pageSize, String type) {
+        // Seeks along idx_rental_user_date, which ends in the primary key; the two rent_date conditions
+        // give the optimizer a plain range
+        return fetchPage(USER_HISTORY_FILTER, username, false, cursor, pageSize, type,
+                "Error retrieving rental history");
+    }
+
+    public RentalPage getActiveRentals(String cursor, int pageSize, String type) {
+        // Seeks along idx_rental_active_seek
+        return fetchPage(ACTIVE_RENTALS_FILTER, null, true, cursor, pageSize, type,
+                "Error retrieving active rentals");
+    }
+
+    private RentalPage fetchPage(String filter, String username, boolean ascending, String cursor,
+                                 int pageSize, String type, String errorMessage) {
+        int size = RentalPage.clampPageSize(pageSize);
+        RentalPage.Key after = cursor == null ? null : RentalPage.parseCursor(cursor);
+        String query = pageQuery(filter, ascending, after != null, type != null);
+
+        List<RentalRecord> fetched = new ArrayList<>(size + 1);
         try (Connection conn = dbManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(
-                     "SELECT COUNT(*) FROM rental_records WHERE vehicle_id = ? AND username = ? AND return_date IS NULL")) {
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            int i = 1;
+            if (username != null) stmt.setString(i++, username);
+            if (after != null) {
+                stmt.setTimestamp(i++, after.rentDate);
+                stmt.setTimestamp(i++, after.rentDate);
+                stmt.setLong(i++, after.id);
+            }
+            if (type != null) stmt.setString(i++, type);
+            stmt.setInt(i, size + 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Timestamp returnDate = rs.getTimestamp("return_date");
+                    fetched.add(new RentalRecord(
+                            rs.getInt("id"), rs.getInt("vehicle_id"), rs.getString("username"),
+                            rs.getTimestamp("rent_date").toLocalDateTime(),
+                            returnDate != null ? returnDate.toLocalDateTime() : null,
+                            rs.getDouble("total_cost"), rs.getString("model"), rs.getString("type")));
+                }
+            }
+        } catch (SQLException e) {
+            showError(errorMessage, e);
+        }
+        return RentalPage.of(fetched, size);
+    }
+
+    // Parameters: the filter's, the cursor's rent date twice and id, the type, then the limit
+    static String pageQuery(String filter, boolean ascending, boolean hasCursor, boolean hasType) {
+        String cmp = ascending ? ">" : "<";
+        String dir = ascending ? "ASC" : "DESC";
+        StringBuilder query = new StringBuilder(
+                "SELECT r.id, r.vehicle_id, r.username, r.rent_date, r.return_date, r.total_cost, v.model, v.type " +
+                        "FROM rental_records r JOIN vehicles v ON r.vehicle_id = v.id WHERE ").append(filter);
+        if (hasCursor) {
+            query.append(" AND r.rent_date ").append(cmp).append("= ? AND (r.rent_date ").append(cmp)
+                    .append(" ? OR r.id ").append(cmp).append(" ?)");
+        }
+        if (hasType) query.append(" AND v.type = ?");
+        query.append(" ORDER BY r.rent_date ").append(dir).append(", r.id ").append(dir).append(" LIMIT ?");
+        return query.toString();
+    }
+
+    /**
+     * Streams every rental record in id order through a server-side cursor that fetches
+     * {@code rental.db.streamFetchSize} rows (default 1000) at a time, so memory stays flat
+     * however large the table is. The pooled connection is held until the stream is
+     * exhausted or closed; use it in try-with-resources. Read errors surface as
+     * {@link IllegalStateException}.
+     */
+    public Stream<RentalRecord> streamRentalRecords() {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        try {
+            conn = dbManager.getConnection();
+            stmt = conn.prepareStatement(ALL_RENTALS_QUERY, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            ResultSet rs = stmt.executeQuery();
+
+            RecordCursor cursor = new RecordCursor(conn, stmt, rs);
+            return StreamSupport.stream(cursor, false).onClose(cursor::close);
+        } catch (SQLException e) {
+            closeQuietly(stmt);
+            closeQuietly(conn);
+            showError("Error streaming rental records", e);
+            return Stream.empty();
+        }
+    }
+
+    /**
+     * Walks a result set of rental records and releases it, its statement and its
+     * connection as soon as the last row is read or the stream is closed.
+     */
+    private static final class RecordCursor extends Spliterators.AbstractSpliterator<RentalRecord> {
+        private final Connection conn;
+        private final PreparedStatement stmt;
+        private final ResultSet rs;
+        private boolean closed;
+
+        RecordCursor(Connection conn, PreparedStatement stmt, ResultSet rs) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.conn = conn;
+            this.stmt = stmt;
+            this.rs = rs;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super RentalRecord> action) {
+            if (closed) return false;
+            try {
+                if (!rs.next()) {
+                    close();
+                    return false;
+                }
+                Timestamp returnDate = rs.getTimestamp("return_date");
+                action.accept(new RentalRecord(
+                        rs.getInt("id"), rs.getInt("vehicle_id"), rs.getString("username"),
+                        rs.getTimestamp("rent_date").toLocalDateTime(),
+                        returnDate != null ? returnDate.toLocalDateTime() : null,
+                        rs.getDouble("total_cost"), rs.getString("model"), rs.getString("type")));
+                return true;
+            } catch (SQLException e) {
+                close();
+                throw new IllegalStateException("Error reading rental records", e);
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            closeQuietly(rs);
+            closeQuietly(stmt);
+            closeQuietly(conn);
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource == null) return;
+        try {
+            resource.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isVehicleRentedByUser(String username, int vehicleId) {
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(RENTED_BY_USER_QUERY)) {
             stmt.setInt(1, vehicleId);
             stmt.setString(2, username);
             try (ResultSet rs = stmt.executeQuery()) {
@@ -484,22 +1283,67 @@ public class RentalManager {
         }
     }
 
-    public synchronized RentalStatistics getRentalStatistics() {
+    /**
+     * Answered from running totals, so the cost doesn't grow with the rental history.
+     * Until the totals have been counted once, falls back to querying the tables.
+     */
+    public RentalStatistics getRentalStatistics() {
+        if (!inventory.isLoaded() || !countersReconciled) return queryRentalStatistics();
+        AvailabilityIndex availability = inventory.getAvailability();
+        return new RentalStatistics(availability.getCounts(false).getModels(),
+                availability.getCounts(true).getModels(),
+                counters.getActiveRentals(), counters.getTotalRevenue());
+    }
+
+    public RentalCounters getStatisticsCounters() {
+        return counters;
+    }
+
+    /**
+     * Recounts open rentals and revenue from rental_records and corrects the running totals,
+     * which drift only if another process writes the tables. Runs every
+     * {@code rental.stats.reconcileSeconds}; skipped, returning false, if a rental
+     * commits while counting.
+     */
+    public boolean reconcileStatistics() {
+        long token = counters.beginReconcile();
+        if (token < 0) return false;
+        try (Connection conn = dbManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+            int activeRentals = 0;
+            double totalRevenue = 0.0;
+            try (ResultSet rs = stmt.executeQuery(ACTIVE_COUNT_QUERY)) {
+                if (rs.next()) activeRentals = rs.getInt(1);
+            }
+            try (ResultSet rs = stmt.executeQuery(REVENUE_QUERY)) {
+                if (rs.next()) totalRevenue = rs.getDouble(1);
+            }
+            if (!counters.reconcile(token, activeRentals, totalRevenue)) return false;
+            countersReconciled = true;
+            return true;
+        } catch (SQLException e) {
+            // Runs in the background; the next run tries again
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private RentalStatistics queryRentalStatistics() {
         int totalVehicles = 0, availableVehicles = 0, activeRentals = 0;
         double totalRevenue = 0.0;
 
         try (Connection conn = dbManager.getConnection();
              Statement stmt = conn.createStatement()) {
-            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM vehicles")) {
+            try (ResultSet rs = stmt.executeQuery(FLEET_COUNT_QUERY)) {
                 if (rs.next()) totalVehicles = rs.getInt(1);
             }
-            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM vehicles WHERE is_available = true")) {
+            try (ResultSet rs = stmt.executeQuery(AVAILABLE_COUNT_QUERY)) {
                 if (rs.next()) availableVehicles = rs.getInt(1);
             }
-            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM rental_records WHERE return_date IS NULL")) {
+            try (ResultSet rs = stmt.executeQuery(ACTIVE_COUNT_QUERY)) {
                 if (rs.next()) activeRentals = rs.getInt(1);
             }
-            try (ResultSet rs = stmt.executeQuery("SELECT SUM(total_cost) FROM rental_records WHERE return_date IS NOT NULL")) {
+            try (ResultSet rs = stmt.executeQuery(REVENUE_QUERY)) {
                 if (rs.next()) totalRevenue = rs.getDouble(1);
             }
         } catch (SQLException e) {
@@ -514,6 +1358,9 @@ public class RentalManager {
     }
 
     public void closeResources() {
+        reconciler.shutdownNow();
+        receipts.shutdown();
+        ledger.shutdown();
         // Use shutdown() instead of closeConnection()
         dbManager.shutdown();
         fileManager.shutdown();
@@ -526,6 +1373,49 @@ public class RentalManager {
     }
 
     // Inner classes
+    public enum ConcurrencyMode {
+        /** The vehicle's stripe lock, then SELECT ... FOR UPDATE before changing availability */
+        PESSIMISTIC,
+        /** Guarded conditional UPDATEs decided by the affected row count; no stripe lock */
+        OPTIMISTIC
+    }
+
+    public enum BatchMode {
+        /** Commit only if every requested unit can be rented or returned */
+        ALL_OR_NOTHING,
+        /** Commit the units that succeed and report the rest as failed */
+        BEST_EFFORT
+    }
+
+    /**
+     * Outcome of a batch rent or return; ids appear once per unit requested
+     */
+    public static class BatchResult {
+        private final List<Integer> succeeded;
+        private final List<Integer> failed;
+
+        public BatchResult(List<Integer> succeeded, List<Integer> failed) {
+            this.succeeded = List.copyOf(succeeded);
+            this.failed = List.copyOf(failed);
+        }
+
+        public List<Integer> getSucceeded() { return succeeded; }
+        public List<Integer> getFailed() { return failed; }
+        public boolean isComplete() { return failed.isEmpty(); }
+    }
+
+    private static class ActiveRental {
+        final int id;
+        final String username;
+        final LocalDateTime rentDate;
+
+        ActiveRental(int id, String username, LocalDateTime rentDate) {
+            this.id = id;
+            this.username = username;
+            this.rentDate = rentDate;
+        }
+    }
+
     public static class RentalRecord {
         private int id, vehicleId;
         private String username, vehicleModel, vehicleType;
@@ -564,6 +1454,73 @@ public class RentalManager {
         }
     }
 
+    /**
+     * One page of rentals plus the cursor that continues after it. Cursors are opaque
+     * tokens naming the (rent date, id) of the last rental on the page, so the next page
+     * seeks straight to it however deep it is.
+     */
+    public static class RentalPage {
+        public static final int MAX_PAGE_SIZE = 500;
+
+        private final List<RentalRecord> records;
+        private final String nextCursor;
+
+        public RentalPage(List<RentalRecord> records, String nextCursor) {
+            this.records = List.copyOf(records);
+            this.nextCursor = nextCursor;
+        }
+
+        public List<RentalRecord> getRecords() { return records; }
+        /** Token for the following page, or null if this is the last one */
+        public String getNextCursor() { return nextCursor; }
+        public boolean hasMore() { return nextCursor != null; }
+
+        static int clampPageSize(int pageSize) {
+            return Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        }
+
+        // The rent date at full precision, as stored; a cursor rounded to millis would
+        // repeat or skip rows whose rent_date has sub-millisecond digits
+        static String cursorAfter(RentalRecord last) {
+            Timestamp rentDate = Timestamp.valueOf(last.getRentDate());
+            String key = Math.floorDiv(rentDate.getTime(), 1000) + ":" + rentDate.getNanos() + ":" + last.getId();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        static Key parseCursor(String cursor) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII)
+                        .split(":");
+                if (parts.length != 3) throw new IllegalArgumentException("Expected seconds:nanos:id");
+                Timestamp rentDate = new Timestamp(Long.parseLong(parts[0]) * 1000);
+                rentDate.setNanos(Integer.parseInt(parts[1]));
+                return new Key(rentDate, Long.parseLong(parts[2]));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid page cursor: " + cursor, e);
+            }
+        }
+
+        /**
+         * The (rent date, id) a cursor continues after
+         */
+        static final class Key {
+            final Timestamp rentDate;
+            final long id;
+
+            Key(Timestamp rentDate, long id) {
+                this.rentDate = rentDate;
+                this.id = id;
+            }
+        }
+
+        // Callers fetch one row more than the page size to learn whether another page follows
+        static RentalPage of(List<RentalRecord> fetched, int pageSize) {
+            if (fetched.size() <= pageSize) return new RentalPage(fetched, null);
+            List<RentalRecord> records = fetched.subList(0, pageSize);
+            return new RentalPage(records, cursorAfter(records.get(pageSize - 1)));
+        }
+    }
+
     public static class RentalStatistics {
         private int totalVehicles, availableVehicles, activeRentals;
         private double totalRevenue;
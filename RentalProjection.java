@@ -0,0 +1,318 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Current fleet and rental state folded from a sequence of {@link RentalEvent}s.
+ * <p>
+ * Events must be applied by one thread at a time, in order; queries may run
+ * concurrently with that thread and never lock. The projection is the live state of
+ * {@link InMemoryRentalStore} and what {@link RentalLedger} replays into.
+ */
+public class RentalProjection implements Consumer<String[]> {
+    private final InventoryCache inventory = new InventoryCache();
+    // By id, so snapshots and streams walk it in order without copying
+    private final ConcurrentSkipListMap<Integer, Rental> rentals = new ConcurrentSkipListMap<>();
+    // Per vehicle in rent order; per user and open rentals by (rent date, id), the page seek key
+    private final Map<Integer, Deque<Rental>> rentalsByVehicle = new ConcurrentHashMap<>();
+    private final Map<String, NavigableSet<Rental>> rentalsByUser = new ConcurrentHashMap<>();
+    private final NavigableSet<Rental> activeRentals = new ConcurrentSkipListSet<>(Rental.ORDER);
+    // Skip-list size() walks the whole list, so the count is kept separately
+    private volatile int activeCount;
+
+    // Only changed by the applying thread
+    private volatile int nextVehicleId = 1;
+    private volatile int nextRentalId = 1;
+    private volatile double totalRevenue;
+
+    public RentalProjection() {
+        // Nothing has been applied yet, but the fleet is complete: it is empty
+        inventory.loadAll(List.of());
+    }
+
+    /**
+     * Applies one event to the state
+     */
+    @Override
+    public void accept(String[] e) {
+        switch (e[0]) {
+            case RentalEvent.VEHICLE_ADDED: {
+                int id = Integer.parseInt(e[1]);
+                inventory.put(new Vehicle(id, e[2], e[3], Double.parseDouble(e[4]),
+                        Integer.parseInt(e[5]), Integer.parseInt(e[6])));
+                nextVehicleId = Math.max(nextVehicleId, id + 1);
+                break;
+            }
+            case RentalEvent.VEHICLE_UPDATED:
+                inventory.updateDetails(Integer.parseInt(e[1]), e[2], e[3], Double.parseDouble(e[4]));
+                break;
+            case RentalEvent.QUANTITY_CHANGED:
+                inventory.updateQuantities(Integer.parseInt(e[1]), Integer.parseInt(e[2]), Integer.parseInt(e[3]));
+                break;
+            case RentalEvent.VEHICLE_REMOVED:
+                inventory.remove(Integer.parseInt(e[1]));
+                break;
+            case RentalEvent.RENTED: {
+                Rental rental = new Rental(Integer.parseInt(e[1]), Integer.parseInt(e[2]), e[3],
+                        RentalEvent.toDateTime(e[4]));
+                index(rental);
+                inventory.adjustAvailable(rental.vehicleId, -1);
+                break;
+            }
+            case RentalEvent.RETURNED: {
+                Rental rental = known(e);
+                rental.returnDate = RentalEvent.toDateTime(e[2]);
+                activeRentals.remove(rental);
+                activeCount--;
+                inventory.adjustAvailable(rental.vehicleId, 1);
+                break;
+            }
+            case RentalEvent.COST_RECORDED: {
+                Rental rental = known(e);
+                double cost = Double.parseDouble(e[2]);
+                totalRevenue += cost - rental.totalCost;
+                rental.totalCost = cost;
+                break;
+            }
+            case RentalEvent.RENTAL_RESTORED: {
+                Rental rental = new Rental(Integer.parseInt(e[1]), Integer.parseInt(e[2]), e[3],
+                        RentalEvent.toDateTime(e[4]));
+                if (!e[5].isEmpty()) rental.returnDate = RentalEvent.toDateTime(e[5]);
+                rental.totalCost = Double.parseDouble(e[6]);
+                index(rental);
+                if (rental.returnDate != null) {
+                    activeRentals.remove(rental);
+                    activeCount--;
+                    totalRevenue += rental.totalCost;
+                }
+                break;
+            }
+            case RentalEvent.NEXT_IDS:
+                nextVehicleId = Math.max(nextVehicleId, Integer.parseInt(e[1]));
+                nextRentalId = Math.max(nextRentalId, Integer.parseInt(e[2]));
+                break;
+            default:
+                throw new IllegalStateException("Unknown rental event: " + e[0]);
+        }
+    }
+
+    // The rental an event names; events only ever follow the rental they are about
+    private Rental known(String[] e) {
+        Rental rental = rentals.get(Integer.parseInt(e[1]));
+        if (rental == null) {
+            throw new IllegalStateException("Rental event " + e[0] + " for unknown rental " + e[1]);
+        }
+        return rental;
+    }
+
+    private void index(Rental rental) {
+        rentals.put(rental.id, rental);
+        rentalsByVehicle.computeIfAbsent(rental.vehicleId, id -> new ConcurrentLinkedDeque<>()).addLast(rental);
+        rentalsByUser.computeIfAbsent(rental.username, u -> new ConcurrentSkipListSet<>(Rental.ORDER)).add(rental);
+        activeRentals.add(rental);
+        activeCount++;
+        nextRentalId = Math.max(nextRentalId, rental.id + 1);
+    }
+
+    /**
+     * The whole state as events that rebuild it when applied to an empty projection
+     */
+    public List<String[]> snapshot() {
+        List<String[]> state = new ArrayList<>();
+        state.add(RentalEvent.nextIds(nextVehicleId, nextRentalId));
+        for (Vehicle vehicle : inventory.getAll()) {
+            state.add(RentalEvent.vehicleAdded(vehicle));
+        }
+        for (Rental rental : rentals.values()) {
+            state.add(RentalEvent.rentalRestored(rental.id, rental.vehicleId, rental.username,
+                    rental.rentDate, rental.returnDate, rental.totalCost));
+        }
+        return state;
+    }
+
+    public InventoryCache getInventory() {
+        return inventory;
+    }
+
+    public int getNextVehicleId() {
+        return nextVehicleId;
+    }
+
+    public int getNextRentalId() {
+        return nextRentalId;
+    }
+
+    /**
+     * Id of the vehicle's most recent open rental, or -1
+     */
+    public int latestActiveRental(int vehicleId) {
+        Deque<Rental> history = rentalsByVehicle.get(vehicleId);
+        if (history == null) return -1;
+        for (Iterator<Rental> it = history.descendingIterator(); it.hasNext(); ) {
+            Rental rental = it.next();
+            if (rental.returnDate == null) return rental.id;
+        }
+        return -1;
+    }
+
+    /**
+     * Id of the vehicle's rental with the latest return date, or -1
+     */
+    public int latestReturnedRental(int vehicleId) {
+        Rental latest = latestReturned(vehicleId);
+        return latest == null ? -1 : latest.id;
+    }
+
+    private Rental latestReturned(int vehicleId) {
+        Deque<Rental> history = rentalsByVehicle.get(vehicleId);
+        if (history == null) return null;
+        Rental latest = null;
+        for (Rental rental : history) {
+            LocalDateTime returned = rental.returnDate;
+            if (returned != null && (latest == null || !returned.isBefore(latest.returnDate))) latest = rental;
+        }
+        return latest;
+    }
+
+    public String getRenter(int rentalId) {
+        Rental rental = rentals.get(rentalId);
+        return rental == null ? null : rental.username;
+    }
+
+    public LocalDateTime getRentDate(int rentalId) {
+        Rental rental = rentals.get(rentalId);
+        return rental == null ? null : rental.rentDate;
+    }
+
+    /**
+     * Rent time of the vehicle's open rental, or of its most recently returned one
+     */
+    public LocalDateTime getRentalTime(int vehicleId) {
+        Deque<Rental> history = rentalsByVehicle.get(vehicleId);
+        if (history == null) return null;
+        for (Rental rental : history) {
+            if (rental.returnDate == null) return rental.rentDate;
+        }
+        Rental returned = latestReturned(vehicleId);
+        return returned == null ? null : returned.rentDate;
+    }
+
+    public List<RentalManager.RentalRecord> getUserRentalHistory(String username) {
+        return toRecords(userRentalsNewestFirst(username));
+    }
+
+    public RentalManager.RentalPage getUserRentalHistory(String username, String cursor, int pageSize, String type) {
+        return page(userRentalsNewestFirst(username), cursor, pageSize, type);
+    }
+
+    private NavigableSet<Rental> userRentalsNewestFirst(String username) {
+        NavigableSet<Rental> rentals = rentalsByUser.get(username);
+        return rentals == null ? Collections.emptyNavigableSet() : rentals.descendingSet();
+    }
+
+    public List<RentalManager.RentalRecord> getActiveRentals() {
+        return toRecords(activeRentals);
+    }
+
+    public RentalManager.RentalPage getActiveRentals(String cursor, int pageSize, String type) {
+        return page(activeRentals, cursor, pageSize, type);
+    }
+
+    // Seeks to the cursor in the ordered set, so a deep page costs the same as the first
+    private RentalManager.RentalPage page(NavigableSet<Rental> ordered, String cursor, int pageSize, String type) {
+        int size = RentalManager.RentalPage.clampPageSize(pageSize);
+        NavigableSet<Rental> from = ordered;
+        if (cursor != null) {
+            RentalManager.RentalPage.Key after = RentalManager.RentalPage.parseCursor(cursor);
+            from = ordered.tailSet(new Rental((int) after.id, 0, "", after.rentDate.toLocalDateTime()), false);
+        }
+        List<RentalManager.RentalRecord> fetched = new ArrayList<>(size + 1);
+        for (Rental rental : from) {
+            RentalManager.RentalRecord record = toRecord(rental, type);
+            if (record == null) continue;
+            fetched.add(record);
+            if (fetched.size() > size) break;
+        }
+        return RentalManager.RentalPage.of(fetched, size);
+    }
+
+    /**
+     * Every rental in id order, including those of removed vehicles, converted one at a time
+     */
+    public Stream<RentalManager.RentalRecord> streamRentalRecords() {
+        return rentals.values().stream().map(rental -> {
+            Optional<Vehicle> vehicle = inventory.get(rental.vehicleId);
+            return new RentalManager.RentalRecord(rental.id, rental.vehicleId, rental.username,
+                    rental.rentDate, rental.returnDate, rental.totalCost,
+                    vehicle.map(Vehicle::getModel).orElse(null), vehicle.map(Vehicle::getType).orElse(null));
+        });
+    }
+
+    private List<RentalManager.RentalRecord> toRecords(Iterable<Rental> source) {
+        List<RentalManager.RentalRecord> records = new ArrayList<>();
+        for (Rental rental : source) {
+            RentalManager.RentalRecord record = toRecord(rental, null);
+            if (record != null) records.add(record);
+        }
+        return records;
+    }
+
+    // Rentals of removed vehicles are left out, as the database join does
+    private RentalManager.RentalRecord toRecord(Rental rental, String type) {
+        Optional<Vehicle> vehicle = inventory.get(rental.vehicleId);
+        if (vehicle.isEmpty() || (type != null && !type.equals(vehicle.get().getType()))) return null;
+        return new RentalManager.RentalRecord(rental.id, rental.vehicleId, rental.username,
+                rental.rentDate, rental.returnDate, rental.totalCost,
+                vehicle.get().getModel(), vehicle.get().getType());
+    }
+
+    public boolean isVehicleRentedByUser(String username, int vehicleId) {
+        Deque<Rental> history = rentalsByVehicle.get(vehicleId);
+        if (history == null) return false;
+        for (Rental rental : history) {
+            if (rental.returnDate == null && rental.username.equals(username)) return true;
+        }
+        return false;
+    }
+
+    public RentalManager.RentalStatistics getRentalStatistics() {
+        AvailabilityIndex availability = inventory.getAvailability();
+        return new RentalManager.RentalStatistics(availability.getCounts(false).getModels(),
+                availability.getCounts(true).getModels(), activeCount, totalRevenue);
+    }
+
+    /**
+     * One rental; the return date and cost are filled in by later events
+     */
+    private static final class Rental {
+        static final Comparator<Rental> ORDER =
+                Comparator.comparing((Rental r) -> r.rentDate).thenComparingInt(r -> r.id);
+
+        final int id;
+        final int vehicleId;
+        final String username;
+        final LocalDateTime rentDate;
+        volatile LocalDateTime returnDate;
+        volatile double totalCost;
+
+        Rental(int id, int vehicleId, String username, LocalDateTime rentDate) {
+            this.id = id;
+            this.vehicleId = vehicleId;
+            this.username = username;
+            this.rentDate = rentDate;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * The rental desk's view of vehicles and rentals, independent of where they are stored.
+ * <p>
+ * {@link RentalManager} keeps everything in the relational database; {@link InMemoryRentalStore}
+ * keeps it in memory and persists through a local journal, for kiosk and branch
+ * deployments where rent and return should not wait on the network.
+ */
+public interface RentalStore {
+
+    List<Vehicle> getAllVehicles();
+
+    List<Vehicle> getAvailableVehicles();
+
+    /**
+     * Vehicles of one type with at least one unit available, e.g. "Car"
+     */
+    List<Vehicle> getAvailableVehicles(String type);
+
+    /**
+     * Model and unit totals for the whole fleet, or only for models that can be rented now
+     */
+    AvailabilityIndex.Counts getInventoryCounts(boolean availableOnly);
+
+    Optional<Vehicle> getVehicleById(int id);
+
+    boolean updateVehicleQuantity(int vehicleId, int newQuantity);
+
+    /**
+     * Rents one unit of the vehicle to the logged-in user
+     */
+    boolean rentVehicle(int id);
+
+    /**
+     * Closes the latest open rental of the vehicle and makes the unit available again
+     */
+    boolean returnVehicle(int vehicleId);
+
+    void addVehicle(String model, String type, double rentPerDay, int quantity);
+
+    default void addVehicle(String model, String type, double rentPerDay) {
+        addVehicle(model, type, rentPerDay, 1);
+    }
+
+    boolean removeVehicle(int id);
+
+    boolean updateVehicle(int id, String model, String type, double rentPerDay);
+
+    /**
+     * Rent time of the vehicle's open rental, or of its most recently returned one
+     */
+    LocalDateTime getRentalTime(int vehicleId);
+
+    /**
+     * Records the cost of the vehicle's most recently returned rental
+     */
+    void updateRentalRecord(int vehicleId, double totalCost);
+
+    List<RentalManager.RentalRecord> getUserRentalHistory(String username);
+
+    /**
+     * One page of a user's rentals, newest first.
+     *
+     * @param cursor   {@link RentalManager.RentalPage#getNextCursor()} of the previous page, or null for the first
+     * @param pageSize rentals per page, capped at {@link RentalManager.RentalPage#MAX_PAGE_SIZE}
+     * @param type     vehicle type to restrict to, or null for all
+     */
+    RentalManager.RentalPage getUserRentalHistory(String username, String cursor, int pageSize, String type);
+
+    List<RentalManager.RentalRecord> getActiveRentals();
+
+    /**
+     * One page of the open rentals, oldest first; parameters as for the history page
+     */
+    RentalManager.RentalPage getActiveRentals(String cursor, int pageSize, String type);
+
+    /**
+     * Every rental record in id order, read lazily so a full scan runs in constant memory.
+     * Rentals of removed vehicles have no model or type. The stream holds resources
+     * until it is exhausted or closed, so use it in try-with-resources.
+     */
+    Stream<RentalManager.RentalRecord> streamRentalRecords();
+
+    boolean isVehicleRentedByUser(String username, int vehicleId);
+
+    RentalManager.RentalStatistics getRentalStatistics();
+
+    void closeResources();
+
+    /**
+     * Creates the store selected by the {@code rental.store} system property:
+     * {@code jdbc} (default) or {@code memory}. The in-memory store keeps its journal
+     * in {@code rental.store.dir} and mirrors to the database asynchronously when
+     * {@code rental.store.sink} is {@code jdbc}.
+     */
+    static RentalStore create() {
+        String store = System.getProperty("rental.store", "jdbc");
+        switch (store.toLowerCase()) {
+            case "jdbc":
+                return new RentalManager();
+            case "memory":
+                DatabaseManager sinkDb = "jdbc".equalsIgnoreCase(System.getProperty("rental.store.sink"))
+                        ? new DatabaseManager()
+                        : null;
+                return new InMemoryRentalStore(Paths.get(System.getProperty("rental.store.dir", "data")), sinkDb);
+            default:
+                throw new IllegalArgumentException("Unknown rental store: " + store);
+        }
+    }
+}
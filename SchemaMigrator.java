@@ -0,0 +1,272 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Brings the rental database schema up to the latest version at startup.
+ * <p>
+ * Each migration runs exactly once and is recorded in the {@code schema_version}
+ * table, so request paths can rely on a single known schema instead of probing
+ * metadata or altering tables themselves. Migrations must only ever be appended;
+ * an applied migration is never edited.
+ */
+public class SchemaMigrator {
+
+    /**
+     * A single schema change
+     */
+    public interface Migration {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private static final class VersionedMigration {
+        final int version;
+        final String description;
+        final Migration migration;
+
+        VersionedMigration(int version, String description, Migration migration) {
+            this.version = version;
+            this.description = description;
+            this.migration = migration;
+        }
+    }
+
+    private final List<VersionedMigration> migrations = new ArrayList<>();
+
+    public SchemaMigrator() {
+        add(1, "Create vehicles and rental_records", conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate(
+                        "CREATE TABLE IF NOT EXISTS vehicles (" +
+                                "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                                "model VARCHAR(100) NOT NULL, " +
+                                "type VARCHAR(50) NOT NULL, " +
+                                "rent_per_day DECIMAL(10, 2) NOT NULL, " +
+                                "quantity INT NOT NULL DEFAULT 1, " +
+                                "available_quantity INT NOT NULL DEFAULT 1)");
+
+                stmt.executeUpdate(
+                        "CREATE TABLE IF NOT EXISTS rental_records (" +
+                                "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                                "vehicle_id INT, " +
+                                "username VARCHAR(50) NOT NULL, " +
+                                "rent_date DATETIME NOT NULL, " +
+                                "return_date DATETIME, " +
+                                "total_cost DECIMAL(10, 2), " +
+                                "FOREIGN KEY (vehicle_id) REFERENCES vehicles(id) ON DELETE SET NULL)");
+            }
+        });
+
+        // Databases created before quantity tracking only had is_available
+        add(2, "Add quantity tracking to vehicles", conn -> {
+            if (hasColumn(conn, "vehicles", "quantity")) return;
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("ALTER TABLE vehicles ADD COLUMN quantity INT NOT NULL DEFAULT 1");
+                stmt.executeUpdate("ALTER TABLE vehicles ADD COLUMN available_quantity INT NOT NULL DEFAULT 1");
+                stmt.executeUpdate("UPDATE vehicles SET quantity = 1, " +
+                        "available_quantity = CASE WHEN is_available = 1 THEN 1 ELSE 0 END");
+            }
+        });
+
+        // The queries read is_available, but the original bootstrap never created it
+        add(3, "Add is_available to vehicles", conn -> {
+            if (hasColumn(conn, "vehicles", "is_available")) return;
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("ALTER TABLE vehicles ADD COLUMN is_available BOOLEAN NOT NULL DEFAULT TRUE");
+                stmt.executeUpdate("UPDATE vehicles SET is_available = (available_quantity > 0)");
+            }
+        });
+
+        // Access paths of the RentalManager queries; without these each one scans rental_records
+        add(4, "Index rental_records and vehicles access paths", conn -> {
+            // Active rental of a vehicle (return, rental time, isVehicleRentedByUser); covers username
+            createIndex(conn, "idx_rental_vehicle_active", "rental_records",
+                    "vehicle_id, return_date, rent_date, username");
+            // Rental history of a user, newest first
+            createIndex(conn, "idx_rental_user_date", "rental_records", "username, rent_date");
+            // All active rentals, oldest first; covers the columns getActiveRentals reads
+            createIndex(conn, "idx_rental_active_date", "rental_records",
+                    "return_date, rent_date, vehicle_id, username");
+            createIndex(conn, "idx_vehicles_available", "vehicles", "available_quantity");
+        });
+
+        // Append-only event ledger; see RentalLedger. Rows are inserted, never updated.
+        add(5, "Create rental_events ledger and ledger_snapshots", conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate(
+                        "CREATE TABLE IF NOT EXISTS rental_events (" +
+                                "seq BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                                "event_type CHAR(1) NOT NULL, " +
+                                "vehicle_id INT NOT NULL, " +
+                                "event VARCHAR(1000) NOT NULL, " +
+                                "recorded_at DATETIME NOT NULL)");
+
+                stmt.executeUpdate(
+                        "CREATE TABLE IF NOT EXISTS ledger_snapshots (" +
+                                "seq BIGINT PRIMARY KEY, " +
+                                "state LONGTEXT NOT NULL, " +
+                                "taken_at DATETIME NOT NULL)");
+            }
+            // History of one vehicle in event order
+            createIndex(conn, "idx_events_vehicle", "rental_events", "vehicle_id, seq");
+        });
+
+        // Seek keys of the paged history and active rental queries; id breaks rent_date ties
+        add(6, "Index rental_records for keyset pagination", conn -> {
+            createIndex(conn, "idx_rental_user_seek", "rental_records", "username, rent_date, id");
+            createIndex(conn, "idx_rental_active_seek", "rental_records", "return_date, rent_date, id");
+        });
+
+        // Receipt requests written with their rental and rendered after commit; see ReceiptOutbox
+        add(7, "Create receipt_outbox", conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate(
+                        "CREATE TABLE IF NOT EXISTS receipt_outbox (" +
+                                "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                                "kind VARCHAR(20) NOT NULL, " +
+                                "username VARCHAR(50) NOT NULL, " +
+                                "event_time DATETIME NOT NULL, " +
+                                "payload TEXT NOT NULL, " +
+                                "owner VARCHAR(36) NOT NULL, " +
+                                "attempts INT NOT NULL DEFAULT 0, " +
+                                "created_at DATETIME NOT NULL, " +
+                                "processed_at DATETIME)");
+            }
+            // Pending requests in order
+            createIndex(conn, "idx_outbox_pending", "receipt_outbox", "processed_at, id");
+        });
+
+        // V6's history seek key duplicates idx_rental_user_date, which already ends in the
+        // primary key, so the paged history seeks along that one
+        add(8, "Drop idx_rental_user_seek", conn -> dropIndex(conn, "idx_rental_user_seek", "rental_records"));
+    }
+
+    /**
+     * Registers a migration; versions must be added in increasing order
+     */
+    public void add(int version, String description, Migration migration) {
+        if (!migrations.isEmpty() && migrations.get(migrations.size() - 1).version >= version) {
+            throw new IllegalArgumentException("Migration versions must increase: " + version);
+        }
+        migrations.add(new VersionedMigration(version, description, migration));
+    }
+
+    /**
+     * Latest version known to this build
+     */
+    public int getLatestVersion() {
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).version;
+    }
+
+    /**
+     * Applies every migration newer than the recorded schema version, each in its own transaction.
+     *
+     * @return the schema version after migrating
+     */
+    public int migrate(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS schema_version (" +
+                            "version INT PRIMARY KEY, " +
+                            "description VARCHAR(200) NOT NULL, " +
+                            "applied_at DATETIME NOT NULL)");
+        }
+
+        int current = getCurrentVersion(conn);
+        if (current > getLatestVersion()) {
+            throw new SQLException("Database schema version " + current +
+                    " is newer than this application supports (" + getLatestVersion() + ")");
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        try {
+            for (VersionedMigration m : migrations) {
+                if (m.version <= current) continue;
+
+                // MySQL commits DDL implicitly, so migrations are written to be re-runnable
+                conn.setAutoCommit(false);
+                try {
+                    m.migration.apply(conn);
+                    try (PreparedStatement record = conn.prepareStatement(
+                            "INSERT INTO schema_version (version, description, applied_at) VALUES (?, ?, ?)")) {
+                        record.setInt(1, m.version);
+                        record.setString(2, m.description);
+                        record.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+                        record.executeUpdate();
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Schema migration " + m.version + " (" + m.description +
+                            ") failed: " + e.getMessage(), e);
+                }
+                current = m.version;
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return current;
+    }
+
+    /**
+     * Versions recorded as applied, oldest first
+     */
+    public List<Integer> getAppliedVersions(Connection conn) throws SQLException {
+        List<Integer> versions = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version FROM schema_version ORDER BY version")) {
+            while (rs.next()) {
+                versions.add(rs.getInt(1));
+            }
+        }
+        return Collections.unmodifiableList(versions);
+    }
+
+    private int getCurrentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void createIndex(Connection conn, String name, String table, String columns)
+            throws SQLException {
+        if (hasIndex(conn, table, name)) return;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE INDEX " + name + " ON " + table + " (" + columns + ")");
+        }
+    }
+
+    private static void dropIndex(Connection conn, String name, String table) throws SQLException {
+        if (!hasIndex(conn, table, name)) return;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("ALTER TABLE " + table + " DROP INDEX " + name);
+        }
+    }
+
+    private static boolean hasIndex(Connection conn, String table, String index) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        for (String t : new String[]{table, table.toUpperCase()}) {
+            try (ResultSet rs = meta.getIndexInfo(conn.getCatalog(), null, t, false, false)) {
+                while (rs.next()) {
+                    if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Only used while migrating; request paths never look at metadata
+    private static boolean hasColumn(Connection conn, String table, String column) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        for (String t : new String[]{table, table.toUpperCase()}) {
+            for (String c : new String[]{column, column.toUpperCase()}) {
+                try (ResultSet rs = meta.getColumns(conn.getCatalog(), null, t, c)) {
+                    if (rs.next()) return true;
+                }
+            }
+        }
+        return false;
+    }
+}
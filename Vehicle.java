@@ -1,13 +1,22 @@
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
- * Represents a vehicle in the rental system
+ * Represents a vehicle in the rental system.
+ * <p>
+ * Total and available quantity are packed into a single 64-bit word (total in the
+ * high half, available in the low half) and only ever changed by compare-and-set,
+ * so rent and return are lock-free and linearizable and every reader sees a pair
+ * that satisfies {@code 0 <= available <= quantity}.
  */
 public class Vehicle {
+    private static final long LOW_MASK = 0xFFFFFFFFL;
+
     private final int id;
     private final String model;
     private final String type;
     private final double rentPerDay;
-    private int quantity;
-    private int availableQuantity;
+    // quantity << 32 | availableQuantity
+    private final AtomicLong units;
     // Removed isAvailable field as it's redundant with availableQuantity > 0
 
     /**
@@ -36,8 +45,19 @@ public class Vehicle {
         this.model = model != null ? model : "";
         this.type = type != null ? type : "";
         this.rentPerDay = rentPerDay;
-        this.quantity = quantity;
-        this.availableQuantity = availableQuantity;
+        this.units = new AtomicLong(pack(quantity, availableQuantity));
+    }
+
+    private static long pack(int quantity, int availableQuantity) {
+        return ((long) quantity << 32) | (availableQuantity & LOW_MASK);
+    }
+
+    private static int quantityOf(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int availableOf(long packed) {
+        return (int) packed;
     }
 
     /**
@@ -95,12 +115,11 @@ public class Vehicle {
             throw new IllegalArgumentException("Quantity cannot be negative");
         }
 
-        this.quantity = quantity;
-
         // Ensure available quantity is not greater than new total
-        if (this.availableQuantity > quantity) {
-            this.availableQuantity = quantity;
-        }
+        long current;
+        do {
+            current = units.get();
+        } while (!units.compareAndSet(current, pack(quantity, Math.min(availableOf(current), quantity))));
     }
 
     /**
@@ -110,11 +129,13 @@ public class Vehicle {
      * @throws IllegalArgumentException if available quantity is invalid
      */
     public void setAvailableQuantity(int availableQuantity) {
-        if (availableQuantity < 0 || availableQuantity > quantity) {
-            throw new IllegalArgumentException("Available quantity must be between 0 and total quantity");
-        }
-
-        this.availableQuantity = availableQuantity;
+        long current;
+        do {
+            current = units.get();
+            if (availableQuantity < 0 || availableQuantity > quantityOf(current)) {
+                throw new IllegalArgumentException("Available quantity must be between 0 and total quantity");
+            }
+        } while (!units.compareAndSet(current, pack(quantityOf(current), availableQuantity)));
     }
 
     /**
@@ -132,8 +153,7 @@ public class Vehicle {
             throw new IllegalArgumentException("Available quantity must be between 0 and total quantity");
         }
 
-        this.quantity = quantity;
-        this.availableQuantity = availableQuantity;
+        units.set(pack(quantity, availableQuantity));
     }
 
     /**
@@ -173,7 +193,7 @@ public class Vehicle {
      * @return true if at least one vehicle is available
      */
     public boolean isAvailable() {
-        return availableQuantity > 0;
+        return availableOf(units.get()) > 0;
     }
 
     /**
@@ -181,7 +201,7 @@ public class Vehicle {
      * @return Total quantity
      */
     public int getQuantity() {
-        return quantity;
+        return quantityOf(units.get());
     }
 
     /**
@@ -189,7 +209,7 @@ public class Vehicle {
      * @return Available quantity
      */
     public int getAvailableQuantity() {
-        return availableQuantity;
+        return availableOf(units.get());
     }
 
     /**
@@ -197,11 +217,14 @@ public class Vehicle {
      * @return true if rental was successful
      */
     public boolean rent() {
-        if (availableQuantity > 0) {
-            availableQuantity--;
-            return true;
-        }
-        return false;
+        long current;
+        do {
+            current = units.get();
+            if (availableOf(current) <= 0) {
+                return false;
+            }
+        } while (!units.compareAndSet(current, current - 1));
+        return true;
     }
 
     /**
@@ -209,11 +232,14 @@ public class Vehicle {
      * @return true if return was successful
      */
     public boolean returnVehicle() {
-        if (availableQuantity < quantity) {
-            availableQuantity++;
-            return true;
-        }
-        return false;
+        long current;
+        do {
+            current = units.get();
+            if (availableOf(current) >= quantityOf(current)) {
+                return false;
+            }
+        } while (!units.compareAndSet(current, current + 1));
+        return true;
     }
 
     /**
@@ -221,6 +247,10 @@ public class Vehicle {
      * @return Availability status string
      */
     public String getAvailabilityStatus() {
+        // Read both counts from one snapshot so the status is self-consistent
+        long snapshot = units.get();
+        int quantity = quantityOf(snapshot);
+        int availableQuantity = availableOf(snapshot);
         if (availableQuantity == 0) {
             return "Rented";
         } else if (availableQuantity == quantity) {
@@ -244,8 +274,7 @@ public class Vehicle {
         Vehicle other = (Vehicle) obj;
         return id == other.id &&
                 Double.compare(other.rentPerDay, rentPerDay) == 0 &&
-                quantity == other.quantity &&
-                availableQuantity == other.availableQuantity &&
+                units.get() == other.units.get() &&
                 model.equals(other.model) &&
                 type.equals(other.type);
     }
@@ -257,8 +286,9 @@ public class Vehicle {
         result = 31 * result + model.hashCode();
         result = 31 * result + type.hashCode();
         result = 31 * result + (int) (Double.doubleToLongBits(rentPerDay) ^ (Double.doubleToLongBits(rentPerDay) >>> 32));
-        result = 31 * result + quantity;
-        result = 31 * result + availableQuantity;
+        long snapshot = units.get();
+        result = 31 * result + quantityOf(snapshot);
+        result = 31 * result + availableOf(snapshot);
         return result;
     }
 }
\ No newline at end of file
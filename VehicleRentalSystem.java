@@ -9,7 +9,7 @@ import javax.swing.SwingConstants;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class VehicleRentalSystem {
-    private final RentalManager rentalManager = new RentalManager();
+    private final RentalStore rentalManager = RentalStore.create();
     private final FileManager fileManager = FileManager.getInstance();
     private final ExecutorService executorService = Executors.newCachedThreadPool();
     private final AtomicBoolean isShutdownInitiated = new AtomicBoolean(false);
@@ -346,7 +346,7 @@ public class VehicleRentalSystem {
             displayMessage("No vehicles found in the system.", colors.DARK_WARNING);
             return;
         }
-        displayVehicles("All Vehicles", allVehicles);
+        displayVehicles("All Vehicles", allVehicles, rentalManager.getInventoryCounts(false));
     }
 
     private void viewAvailableVehicles() {
@@ -357,10 +357,10 @@ public class VehicleRentalSystem {
             return;
         }
 
-        displayVehicles("Available Vehicles", availableVehicles);
+        displayVehicles("Available Vehicles", availableVehicles, rentalManager.getInventoryCounts(true));
     }
 
-    private void displayVehicles(String header, List<Vehicle> vehicles) {
+    private void displayVehicles(String header, List<Vehicle> vehicles, AvailabilityIndex.Counts counts) {
         SwingUtilities.invokeLater(() -> {
             displayPanel.removeAll();
 
@@ -461,7 +461,7 @@ public class VehicleRentalSystem {
             tableScrollPane.getViewport().setBackground(colors.DARK_PANEL);
 
             // Summary panel with statistics
-            JPanel summaryPanel = createSummaryPanel(vehicles);
+            JPanel summaryPanel = createSummaryPanel(counts);
 
             displayPanel.add(headerPanel, BorderLayout.NORTH);
             displayPanel.add(tableScrollPane, BorderLayout.CENTER);
@@ -531,7 +531,7 @@ public class VehicleRentalSystem {
         });
     }
 
-    private JPanel createSummaryPanel(List<Vehicle> vehicles) {
+    private JPanel createSummaryPanel(AvailabilityIndex.Counts counts) {
         JPanel summaryPanel = new JPanel(new BorderLayout());
         summaryPanel.setBorder(BorderFactory.createCompoundBorder(
                 BorderFactory.createMatteBorder(1, 0, 0, 0, colors.DARK_ACCENT),
@@ -539,10 +539,10 @@ public class VehicleRentalSystem {
         ));
         summaryPanel.setBackground(colors.DARK_PANEL);
 
-        int totalVehicles = vehicles.size();
-        int totalQuantity = vehicles.stream().mapToInt(Vehicle::getQuantity).sum();
-        int availableQuantity = vehicles.stream().mapToInt(Vehicle::getAvailableQuantity).sum();
-        int rentedQuantity = totalQuantity - availableQuantity;
+        int totalVehicles = counts.getModels();
+        int totalQuantity = counts.getUnits();
+        int availableQuantity = counts.getAvailableUnits();
+        int rentedQuantity = counts.getRentedUnits();
 
         JLabel countLabel = new JLabel(String.format(
                 "<html><b style='color:%s'>Summary:</b> %d models (%d units, <font color='%s'>%d available</font>, <font color='%s'>%d rented</font></html>",